@@ -0,0 +1,183 @@
+package cn.xnatural.app;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 编译期生成的 {@link Inject} 字段和 @EL 监听方法索引 {@link AotProcessor}
+ * 合并 classpath 中所有的 META-INF/tiny/aot.idx
+ * 索引中记录了注解属性(注入名, 事件名, order, async), 运行时不用再读取注解
+ * 每个索引文件在加载时检查一次格式版本 {@link #VERSION}, 版本不一致的索引文件整个忽略(由调用方反射查找)
+ * NOTE: 不逐个类校验索引是否过期: 修改了 {@link Inject}/@EL 的类必须经过处理器编译(maven 编译总会经过), 否则按编译时的索引注册
+ */
+public class AotIndex {
+    protected static final Logger log      = LoggerFactory.getLogger(AotIndex.class);
+    public static final    String RESOURCE = "META-INF/tiny/aot.idx";
+    /**
+     * 索引格式版本. 索引文件第一行: V 版本
+     */
+    public static final    String VERSION  = "2";
+    /**
+     * 类名 -> 类索引
+     */
+    protected final Map<String, Entry> entries = new HashMap<>();
+
+
+    /**
+     * 加载 classpath 中所有的索引文件
+     * @param cl {@link ClassLoader}
+     * @return {@link AotIndex}
+     */
+    public static AotIndex load(ClassLoader cl) {
+        final AotIndex index = new AotIndex();
+        try {
+            for (Enumeration<URL> urls = cl.getResources(RESOURCE); urls.hasMoreElements(); ) {
+                URL url = urls.nextElement();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+                    String line = reader.readLine();
+                    if (!header().equals(line)) {
+                        log.warn("Aot index version mismatch, ignore: {}. Recompile with cn.xnatural.app.AotProcessor", url);
+                        continue;
+                    }
+                    for (line = reader.readLine(); line != null; line = reader.readLine()) index.add(line);
+                }
+                log.debug("Loaded aot index: {}", url);
+            }
+        } catch (IOException ex) {
+            log.error("Load aot index error", ex);
+        }
+        return index;
+    }
+
+
+    /**
+     * 索引文件第一行
+     */
+    public static String header() { return "V\t" + VERSION; }
+
+
+    /**
+     * C 类名
+     * I 类名 字段名 注入名
+     * L 类名 方法名 参数类型(逗号分隔) 事件名(逗号分隔) async order
+     */
+    protected void add(String line) {
+        final String[] parts = line.split("\t", -1);
+        if (parts.length < 2) return;
+        final Entry entry = entries.computeIfAbsent(parts[1], k -> new Entry());
+        if ("I".equals(parts[0]) && parts.length >= 4) entry.injects.add(new String[]{parts[2], parts[3]});
+        else if ("L".equals(parts[0]) && parts.length >= 7) {
+            entry.listeners.add(new Listen(parts[2], split(parts[3]), split(parts[4]), Boolean.parseBoolean(parts[5]), Float.parseFloat(parts[6])));
+        }
+    }
+
+
+    protected static String[] split(String s) { return s.isEmpty() ? new String[0] : s.split(","); }
+
+
+    /**
+     * 是否没有索引
+     */
+    public boolean isEmpty() { return entries.isEmpty(); }
+
+
+    /**
+     * 类中声明的(不包括父类) {@link Inject} 字段
+     * @param clz 类
+     * @return [字段名, 注入名] 列表. null: 不在索引中
+     */
+    public List<String[]> injects(Class<?> clz) {
+        final Entry entry = entries.get(clz.getName());
+        return entry == null ? null : Collections.unmodifiableList(entry.injects);
+    }
+
+
+    /**
+     * 类中声明的(不包括父类) @EL 监听方法
+     * @param clz 类
+     * @return 监听列表. null: 不在索引中
+     */
+    public List<Listen> listeners(Class<?> clz) {
+        final Entry entry = entries.get(clz.getName());
+        return entry == null ? null : Collections.unmodifiableList(entry.listeners);
+    }
+
+
+    /**
+     * 查找索引中的监听方法. 只在需要直接调用时(例: sys.starting)查找
+     * @param clz 声明的类
+     * @param name 方法名
+     * @param paramTypes 参数类型 {@link Class#getName()}
+     * @return 方法
+     */
+    public static Method method(Class<?> clz, String name, String[] paramTypes) throws ReflectiveOperationException {
+        final Class<?>[] types = new Class<?>[paramTypes.length];
+        for (int i = 0; i < types.length; i++) types[i] = classForName(paramTypes[i], clz.getClassLoader());
+        return clz.getDeclaredMethod(name, types);
+    }
+
+
+    protected static Class<?> classForName(String name, ClassLoader cl) throws ClassNotFoundException {
+        switch (name) {
+            case "boolean": return boolean.class;
+            case "byte": return byte.class;
+            case "char": return char.class;
+            case "short": return short.class;
+            case "int": return int.class;
+            case "long": return long.class;
+            case "float": return float.class;
+            case "double": return double.class;
+            default: return Class.forName(name, false, cl);
+        }
+    }
+
+
+    @Override
+    public String toString() { return "AotIndex{classes: " + entries.size() + "}"; }
+
+
+    /**
+     * 类索引
+     */
+    protected static class Entry {
+        /**
+         * [字段名, 注入名]
+         */
+        protected final List<String[]> injects   = new ArrayList<>();
+        protected final List<Listen>   listeners = new ArrayList<>();
+    }
+
+
+    /**
+     * 索引中的一个 @EL 监听方法
+     */
+    public static class Listen {
+        public final String   method;
+        /**
+         * 参数类型 {@link Class#getName()}
+         */
+        public final String[] paramTypes;
+        /**
+         * 事件名 EL#name
+         */
+        public final String[] names;
+        public final boolean  async;
+        public final float    order;
+
+        public Listen(String method, String[] paramTypes, String[] names, boolean async, float order) {
+            this.method = method;
+            this.paramTypes = paramTypes;
+            this.names = names;
+            this.async = async;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package cn.xnatural.app;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 编译期生成 {@link Inject} 字段和 @EL 监听方法的静态索引 {@link AotIndex}
+ * 索引记录注解属性(注入名, 事件名, order, async), 启动时按索引注册注入和监听, 不用反射遍历每个类的所有成员和注解
+ * 索引文件: META-INF/tiny/aot.idx, 第一行为格式版本 {@link AotIndex#VERSION}. 增量编译时与已有索引合并(替换本次编译的类)
+ * NOTE: 匿名类, 局部类不在索引中, 运行时照常用反射
+ * <pre>
+ * &lt;plugin&gt;
+ *     &lt;artifactId&gt;maven-compiler-plugin&lt;/artifactId&gt;
+ *     &lt;configuration&gt;
+ *         &lt;annotationProcessors&gt;
+ *             &lt;annotationProcessor&gt;cn.xnatural.app.AotProcessor&lt;/annotationProcessor&gt;
+ *         &lt;/annotationProcessors&gt;
+ *     &lt;/configuration&gt;
+ * &lt;/plugin&gt;
+ * </pre>
+ */
+@SupportedAnnotationTypes("*")
+public class AotProcessor extends AbstractProcessor {
+    protected static final String INJECT = Inject.class.getName();
+    protected static final String EL     = "cn.xnatural.enet.event.EL";
+    /**
+     * 索引行(所有轮次)
+     */
+    protected final Set<String> lines   = new LinkedHashSet<>();
+    /**
+     * 本次编译索引的类名
+     */
+    protected final Set<String> indexed = new HashSet<>();
+
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() { return SourceVersion.latestSupported(); }
+
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element e : roundEnv.getRootElements()) {
+            if (e instanceof TypeElement) index((TypeElement) e);
+        }
+        if (roundEnv.processingOver()) write();
+        return false; // 不占用注解, 其它处理器照常处理
+    }
+
+
+    /**
+     * 索引一个类(包括内部类), 行格式见 {@link AotIndex#add(String)}
+     * @param type 类
+     */
+    protected void index(TypeElement type) {
+        final String clzName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        indexed.add(clzName);
+        lines.add("C\t" + clzName); // 没有注解成员的类也记录: 运行时不用反射遍历
+        for (Element e : type.getEnclosedElements()) {
+            if (e instanceof TypeElement) index((TypeElement) e);
+            else if (e.getKind() == ElementKind.FIELD) {
+                AnnotationMirror inject = annotation(e, INJECT);
+                if (inject == null) continue;
+                lines.add("I\t" + clzName + "\t" + e.getSimpleName() + "\t" + value(inject, "name"));
+            } else if (e.getKind() == ElementKind.METHOD) {
+                AnnotationMirror el = annotation(e, EL);
+                if (el == null) continue;
+                String params = ((ExecutableElement) e).getParameters().stream().map(p -> binaryName(p.asType())).collect(Collectors.joining(","));
+                lines.add("L\t" + clzName + "\t" + e.getSimpleName() + "\t" + params + "\t" + value(el, "name") + "\t" + value(el, "async") + "\t" + value(el, "order"));
+            }
+        }
+    }
+
+
+    /**
+     * 注解属性值(包括默认值). 数组用逗号连接
+     * @param am 注解
+     * @param name 属性名
+     */
+    protected String value(AnnotationMirror am, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : processingEnv.getElementUtils().getElementValuesWithDefaults(am).entrySet()) {
+            if (!name.contentEquals(entry.getKey().getSimpleName())) continue;
+            final Object v = entry.getValue().getValue();
+            if (v instanceof List) return ((List<?>) v).stream().map(o -> String.valueOf(((AnnotationValue) o).getValue())).collect(Collectors.joining(","));
+            return String.valueOf(v);
+        }
+        return "";
+    }
+
+
+    protected AnnotationMirror annotation(Element e, String annotationName) {
+        for (AnnotationMirror am : e.getAnnotationMirrors()) {
+            Element ae = am.getAnnotationType().asElement();
+            if (ae instanceof TypeElement && ((TypeElement) ae).getQualifiedName().contentEquals(annotationName)) return am;
+        }
+        return null;
+    }
+
+
+    /**
+     * 类型擦除后的运行时类名 {@link Class#getName()}
+     */
+    protected String binaryName(TypeMirror type) {
+        TypeMirror t = processingEnv.getTypeUtils().erasure(type);
+        if (t.getKind().isPrimitive()) return t.toString();
+        if (t.getKind() == TypeKind.ARRAY) {
+            StringBuilder sb = new StringBuilder("[");
+            TypeMirror c = ((ArrayType) t).getComponentType();
+            while (c.getKind() == TypeKind.ARRAY) { sb.append('['); c = ((ArrayType) c).getComponentType(); }
+            c = processingEnv.getTypeUtils().erasure(c);
+            switch (c.getKind()) {
+                case BOOLEAN: return sb.append('Z').toString();
+                case BYTE: return sb.append('B').toString();
+                case CHAR: return sb.append('C').toString();
+                case SHORT: return sb.append('S').toString();
+                case INT: return sb.append('I').toString();
+                case LONG: return sb.append('J').toString();
+                case FLOAT: return sb.append('F').toString();
+                case DOUBLE: return sb.append('D').toString();
+                default: return sb.append('L').append(binaryName(c)).append(';').toString();
+            }
+        }
+        if (t instanceof DeclaredType) {
+            return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) t).asElement()).toString();
+        }
+        return t.toString();
+    }
+
+
+    protected void write() {
+        final List<String> kept = existing();
+        try {
+            FileObject fo = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", AotIndex.RESOURCE);
+            try (Writer w = new OutputStreamWriter(fo.openOutputStream(), StandardCharsets.UTF_8)) {
+                w.write(AotIndex.header() + "\n");
+                for (String line : kept) w.write(line + "\n");
+                for (String line : lines) w.write(line + "\n");
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Write " + AotIndex.RESOURCE + " error: " + ex);
+        }
+    }
+
+
+    /**
+     * 增量编译: 已有索引中不是本次编译的类的索引行
+     * 已有索引的格式版本不一致时不保留(那些类运行时用反射, 直到全量编译)
+     * @return 保留的索引行
+     */
+    protected List<String> existing() {
+        final List<String> kept = new ArrayList<>();
+        try {
+            FileObject fo = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", AotIndex.RESOURCE);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fo.openInputStream(), StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                if (!AotIndex.header().equals(line)) return kept;
+                for (line = reader.readLine(); line != null; line = reader.readLine()) {
+                    final String[] parts = line.split("\t", -1);
+                    if (parts.length >= 2 && !indexed.contains(parts[1])) kept.add(line);
+                }
+            }
+        } catch (IOException | IllegalArgumentException ex) { /* 没有已有索引: 全量编译 */ }
+        return kept;
+    }
+}
@@ -8,18 +8,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static java.util.Collections.emptyList;
 
@@ -36,6 +41,10 @@ public class AppContext {
      * 服务对象源
      */
     protected final        Map<String, Object>   sourceMap    = new ConcurrentHashMap<>();
+    /**
+     * bean 索引: 服务对象源 和 {@link ServerTpl#exposeBean} 暴露的 bean
+     */
+    protected final        BeanRegistry          beans        = new BeanRegistry();
     /**
      * 对列执行器映射
      */
@@ -48,16 +57,11 @@ public class AppContext {
      * jvm关闭钩子. kill
      * System.exit(0)
      */
-    protected final        Thread                shutdownHook = new Thread(() -> {
-        // 通知各个模块服务关闭
-        CountDownLatch latch = new CountDownLatch(1);
-        ep().fire(new EC("sys.stopping", AppContext.this).completeFn(ec -> latch.countDown()));
-        try {
-            latch.await(getAttr("sys.stopWait", Long.class, 30L), TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-    }, "stop");
+    protected final        Thread                shutdownHook = new Thread(() -> shutdown(), "stop");
+    /**
+     * 启动耗时记录. 只在 sys.start.profile=true 时创建(加载配置时), 启动完成后置空 {@link #start()}
+     */
+    protected volatile     StartupProfiler       profiler;
 
     /**
      * 初始化一个 {@link java.util.concurrent.ThreadPoolExecutor}
@@ -125,20 +129,83 @@ public class AppContext {
      */
     public ExecutorService exec() { return _exec.get(); }
 
+    /**
+     * 初始化 时间轮定时器
+     */
+    protected final Lazier<TimeWheel> _wheel = new Lazier<>(() -> {
+        log.debug("init time wheel ...");
+        return new TimeWheel(exec(), getAttr("sys.timer.tickMs", Long.class, 100L), getAttr("sys.timer.ticksPerWheel", Integer.class, 512));
+    });
+    /**
+     * 延时执行
+     * @param delay 延时时长
+     * @param fn 任务函数
+     * @return {@link TimeWheel.Task}
+     */
+    public TimeWheel.Task schedule(Duration delay, Runnable fn) { return _wheel.get().schedule(delay, fn); }
+
+    /**
+     * 按固定频率执行
+     * @param initialDelay 第一次执行的延时
+     * @param period 执行周期
+     * @param fn 任务函数
+     * @return {@link TimeWheel.Task}
+     */
+    public TimeWheel.Task scheduleAtFixedRate(Duration initialDelay, Duration period, Runnable fn) {
+        return _wheel.get().scheduleAtFixedRate(initialDelay, period, fn);
+    }
+
     /**
      * 初始化 事件中心
      */
     protected final Lazier<EP> _ep = new Lazier<>(() -> {
         log.debug("init ep ...");
+        final long begin = System.nanoTime();
         EP ep = new EP(exec(), LoggerFactory.getLogger(EP.class)) {
             @Override
             public Object fire(EC ec, List<Listener> ls) {
-                if ("sys.inited".equals(ec.eName) || "sys.starting".equals(ec.eName) || "sys.stopping".equals(ec.eName) || "sys.started".equals(ec.eName)) {
+                if ("sys.inited".equals(ec.eName) || "sys.starting".equals(ec.eName) || "sys.stopping".equals(ec.eName) || "sys.started".equals(ec.eName) || "sys.profile".equals(ec.eName)) {
                     if (ec.source() != AppContext.this) throw new UnsupportedOperationException("not allow fire event '" + ec.eName + "'");
                 }
                 return super.fire(ec, ls);
             }
 
+            @Override
+            public Object fire(EC ec) {
+                activateForEvent(ec.eName);
+                return super.fire(ec);
+            }
+
+            @Override
+            public Object fire(String eName, Object... args) {
+                activateForEvent(eName);
+                return super.fire(eName, args);
+            }
+
+            @Override
+            public EP removeEvent(String eName, Object s) {
+                if (eName != null && s == null) { // 删除事件的所有监听: 包括还未创建的延迟对象源
+                    Set<String> names = lazyEvents.remove(eName);
+                    if (names != null) {
+                        for (String name : names) {
+                            LazySource lazySource = lazySources.get(name);
+                            if (lazySource != null) synchronized (lazySource) { lazySource.events.remove(eName); }
+                        }
+                    }
+                }
+                return super.removeEvent(eName, s);
+            }
+
+            @Override
+            public boolean exist(String... eNames) {
+                if (eNames != null && !lazyEvents.isEmpty()) {
+                    for (String eName : eNames) {
+                        if (lazyEvents.containsKey(eName)) return true;
+                    }
+                }
+                return super.exist(eNames);
+            }
+
             @Override
             public String toString() { return "coreEp"; }
         };
@@ -148,6 +215,7 @@ public class AppContext {
             Arrays.stream(track.split(",")).filter(s -> s != null && !s.trim().isEmpty()).forEach(s -> ep.addTrackEvent(s.trim()));
         }
         ep.addListenerSource(AppContext.this);
+        profile("ep", "init", begin);
         return ep;
     });
     /**
@@ -157,15 +225,76 @@ public class AppContext {
     public EP ep() { return _ep.get(); }
 
     /**
-     * 环境属性配置.只支持properties文件, 支持${}属性替换
+     * 环境属性配置 {@link #loadEnv()}
+     */
+    private final Lazier<Map<String, Object>> _env = new Lazier<>(() -> {
+        final long begin = System.nanoTime();
+        final Map<String, Object> result = loadEnv();
+        loadedEnv = new HashMap<>(result);
+        if (Boolean.TRUE.equals(Utils.to(result.get("sys.start.profile"), Boolean.class))) profiler = new StartupProfiler(begin);
+        profile("env", "loadEnv", begin);
+        return result;
+    });
+    /**
+     * 最近一次从配置源加载的环境属性快照. 重新加载时用于比较变化 {@link #reloadEnv()}
+     */
+    protected volatile Map<String, Object> loadedEnv;
+
+    /**
+     * 加载环境属性配置
+     * 指定了 -Denvcache=文件路径 时, 使用解析好的属性集缓存文件: 配置文件(修改时间, 大小)和 System.getProperties() 都没变化时直接读取缓存
+     * NOTE: 重写了 {@link #customEnv(Map)} 时不使用缓存(自定义属性可能每次都不同)
+     * @return 属性集 {@link #parseEnv()}
+     */
+    protected Map<String, Object> loadEnv() {
+        final String cacheFile = System.getProperty("envcache");
+        if (cacheFile == null || cacheFile.isEmpty() || customEnvOverridden()) return parseEnv();
+        final String stamp = envStamp();
+        final File file = new File(cacheFile);
+        if (file.isFile()) {
+            try (ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (stamp.equals(is.readUTF())) {
+                    final Map<String, Object> result = new ConcurrentHashMap<>((Map<String, Object>) is.readObject());
+                    log.debug("Loaded env from cache file: {}", file.getAbsolutePath());
+                    return result;
+                }
+            } catch (Exception ex) {
+                log.warn("Read env cache file '" + file.getAbsolutePath() + "' error. " + ex);
+            }
+        }
+        final Map<String, Object> result = parseEnv();
+        final Map<String, Object> cache = new HashMap<>(result.size());
+        result.forEach((k, v) -> { if (v instanceof Serializable) cache.put(k, v); });
+        if (cache.size() == result.size()) {
+            File tmp = new File(file.getAbsolutePath() + ".tmp");
+            try (ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                os.writeUTF(stamp);
+                os.writeObject(cache);
+            } catch (Exception ex) {
+                log.warn("Write env cache file '" + file.getAbsolutePath() + "' error. " + ex);
+                tmp.delete();
+                return result;
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) tmp.delete();
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * 从配置源解析环境属性配置.只支持properties文件, 支持${}属性替换 {@link #resolvePlaceholder(Map)}
      * 加载顺序(优先级从小到大):
      * classpath:app.properties, classpath:app-[profile].properties
      * file:./app.properties, file:./app-[profile].properties
      * configdir:app.properties, configdir:app-[profile].properties
      * {@link #customEnv(Map)}
      * System.getProperties()
+     * @return 属性集
      */
-    private final Lazier<Map<String, Object>> _env = new Lazier<>(() -> {
+    protected Map<String, Object> parseEnv() {
         final Map<String, Object> result = new ConcurrentHashMap<>(); // 结果属性集
         System.getProperties().forEach((k, v) -> result.put(k.toString(), v));
         String configname = (String) result.getOrDefault("configname", "app");// 配置文件名. 默认app
@@ -243,46 +372,217 @@ public class AppContext {
         }
         customEnv(result);
 
-        // 替换 ${}
-        new Runnable() {
-            final Pattern pattern = Pattern.compile("(\\$\\{(?<attr>[\\w\\._]+)\\})+");
-            final AtomicInteger count = new AtomicInteger(0);
-            @Override
-            public void run() {
-                if (count.getAndIncrement() >= 3) return;
-                boolean f = false;
-                for (Map.Entry<String, Object> e : result.entrySet()) {
-                    if (e.getValue() == null) continue;
-                    Matcher m = pattern.matcher(e.getValue().toString());
-                    if (!m.find()) continue;
-                    f = true;
-                    result.put(e.getKey(), e.getValue().toString().replace(m.group(0), result.getOrDefault(m.group("attr"), "").toString()));
-                }
-                if (f) run(); // 一直解析直到所有值都被替换完成
-            }
-        }.run();
+        resolvePlaceholder(result); // 替换 ${}
 
         System.getProperties().forEach((k, v) -> result.put(k.toString(), v));
         return result;
-    });
+    }
+
+
+    /**
+     * 替换属性值中的 ${属性名}
+     * 按依赖顺序一遍解析: 先解析被引用的属性, 每个属性只解析一次
+     * 引用的属性不存在或者循环引用时替换为空字符串
+     * @param attrs 属性集
+     */
+    protected static void resolvePlaceholder(Map<String, Object> attrs) {
+        final Map<String, Boolean> state = new HashMap<>(); // false: 解析中, true: 已解析
+        for (String key : new ArrayList<>(attrs.keySet())) resolvePlaceholder(attrs, key, state);
+    }
+
+
+    /**
+     * 解析一个属性值
+     * @param attrs 属性集
+     * @param key 属性名
+     * @param state 属性解析状态
+     * @return 解析后的值. null: 不存在或循环引用
+     */
+    protected static Object resolvePlaceholder(Map<String, Object> attrs, String key, Map<String, Boolean> state) {
+        final Object v = attrs.get(key);
+        if (!(v instanceof String)) return v;
+        final Boolean resolved = state.get(key);
+        if (Boolean.TRUE.equals(resolved)) return v;
+        if (Boolean.FALSE.equals(resolved)) {
+            log.warn("Circular reference of attr '{}'", key);
+            return null;
+        }
+        final String s = (String) v;
+        int start = s.indexOf("${");
+        if (start < 0) { state.put(key, true); return v; }
+        state.put(key, false);
+        final StringBuilder sb = new StringBuilder(s.length());
+        int i = 0;
+        for (; start >= 0; start = s.indexOf("${", i)) {
+            int end = start + 2;
+            while (end < s.length() && isAttrChar(s.charAt(end))) end++;
+            if (end == start + 2 || end >= s.length() || s.charAt(end) != '}') { // 不是 ${属性名}
+                sb.append(s, i, start + 2); i = start + 2;
+                continue;
+            }
+            sb.append(s, i, start);
+            Object ref = resolvePlaceholder(attrs, s.substring(start + 2, end), state);
+            if (ref != null) sb.append(ref);
+            i = end + 1;
+        }
+        sb.append(s, i, s.length());
+        final String value = sb.toString();
+        attrs.put(key, value);
+        state.put(key, true);
+        return value;
+    }
+
+    protected static boolean isAttrChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '.';
+    }
+
+
+    /**
+     * 环境属性缓存的标识: 配置文件(路径, 修改时间, 大小) + System.getProperties()
+     * 任一变化时缓存失效
+     * @return 标识字符串
+     */
+    protected String envStamp() {
+        final StringBuilder sb = new StringBuilder();
+        final String configname = System.getProperty("configname", "app");
+        final String profile = System.getProperty("profile");
+        for (String fName : profile == null ? Collections.singletonList(configname + ".properties") : Arrays.asList(configname + ".properties", configname + "-" + profile + ".properties")) {
+            java.net.URL url = getClass().getClassLoader().getResource(fName);
+            if (url != null && !"file".equals(url.getProtocol())) { // jar 包中的文件
+                try {
+                    java.net.URLConnection conn = url.openConnection();
+                    conn.setUseCaches(false);
+                    sb.append(url).append(':').append(conn.getLastModified()).append(':').append(conn.getContentLengthLong()).append(';');
+                    try (InputStream is = conn.getInputStream()) {} // 释放 jar 文件句柄
+                } catch (IOException ex) {
+                    sb.append(url).append(":?;");
+                }
+            }
+        }
+        for (File f : envFiles()) {
+            sb.append(f.getAbsolutePath()).append(':').append(f.lastModified()).append(':').append(f.length()).append(';');
+        }
+        sb.append(System.getProperties().hashCode());
+        return sb.toString();
+    }
+
+
+    /**
+     * 是否重写了 {@link #customEnv(Map)}
+     */
+    protected boolean customEnvOverridden() {
+        for (Class<?> c = getClass(); c != AppContext.class && c != null; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("customEnv", Map.class);
+                return true;
+            } catch (NoSuchMethodException ex) { /* 父类 */ }
+        }
+        return false;
+    }
     /**
      * 环境属性配置
      */
     public Map<String, Object> env() { return _env.get(); }
 
 
+    /**
+     * 重新加载环境属性配置
+     * 只把配置源中有变化(新增, 修改, 删除)的属性更新到 {@link #env()}, 运行时手动设置的属性不受影响
+     * 有变化时触发事件 env.changed, 参数: 变化的属性名集合
+     * <pre>
+     * &#64;EL(name = "env.changed")
+     * void envChanged(Set&lt;String&gt; keys) {
+     *     if (keys.contains(name + ".speed")) queue(name).speed(getStr("speed", null));
+     * }
+     * </pre>
+     * @return 变化的属性名集合
+     */
+    public synchronized Set<String> reloadEnv() {
+        final Map<String, Object> env = env();
+        final Map<String, Object> old = loadedEnv;
+        final Map<String, Object> fresh = loadEnv();
+        final Set<String> changed = new LinkedHashSet<>();
+        fresh.forEach((k, v) -> {
+            if (Objects.equals(v, old.get(k))) return;
+            env.put(k, v); changed.add(k);
+        });
+        old.forEach((k, v) -> {
+            if (fresh.containsKey(k)) return;
+            env.remove(k); changed.add(k);
+        });
+        loadedEnv = new HashMap<>(fresh);
+        if (!changed.isEmpty()) {
+            log.info("Env changed: {}", changed);
+            ep().fire("env.changed", Collections.unmodifiableSet(changed));
+        }
+        return changed;
+    }
+
+
+    /**
+     * 环境属性配置文件(可能不存在)
+     * 用于监控配置文件变化 {@link EnvWatcher}
+     * @return 配置文件集
+     */
+    protected List<File> envFiles() {
+        final List<File> files = new ArrayList<>();
+        final String configname = System.getProperty("configname", "app");
+        final String profile = System.getProperty("profile");
+        final String configdir = System.getProperty("configdir");
+        final List<String> names = new ArrayList<>(2);
+        names.add(configname + ".properties");
+        if (profile != null) names.add(configname + "-" + profile + ".properties");
+        for (String fName : names) {
+            // classpath 中的文件(非jar包中)
+            java.net.URL url = getClass().getClassLoader().getResource(fName);
+            if (url != null && "file".equals(url.getProtocol())) {
+                try {
+                    files.add(new File(url.toURI()));
+                } catch (Exception ex) {
+                    log.trace("Config file url: " + url, ex);
+                }
+            }
+            files.add(new File(fName).getAbsoluteFile());
+            if (configdir != null) files.add(new File(configdir, fName).getAbsoluteFile());
+        }
+        return files;
+    }
+
+
+    /**
+     * 配置文件监控器 {@link #reloadEnv()}
+     */
+    protected final Lazier<EnvWatcher> _envWatcher = new Lazier<>(() -> new EnvWatcher(this, envFiles(), Duration.ofSeconds(getAttr("sys.env.watchInterval", Long.class, 5L))));
+
+
     /**
      * 启动
      */
     public AppContext start() {
         log.info("Starting Application with PID {}, active profile: {}", Utils.pid(), getProfile());
         // 1. 初始化
+        long begin = System.nanoTime();
         ep().fire(new EC("sys.inited", this));
+        profile("sys.inited", "event", begin);
         // 2. 通知所有服务启动
-        ep().fire(new EC("sys.starting", this).completeFn(ec -> {
+        final EC startingEc = new EC("sys.starting", this);
+        final boolean parallel = getAttr("sys.start.parallel", Boolean.class, false);
+        if (parallel) startParallel(startingEc);
+        else if (profiler != null) profileStarting(startingEc); // 记录每个 sys.starting 监听的耗时
+        final long startingBegin = System.nanoTime();
+        final Runnable starting = () -> {
+            profile("sys.starting", "event", startingBegin);
             Runtime.getRuntime().addShutdownHook(shutdownHook);
             sourceMap.forEach((s, o) -> inject(o)); // 自动注入
             log.info("Started Application '{}' in {} seconds (JVM running for {})", name() + ":" + id(), (System.currentTimeMillis() - startup.getTime()) / 1000.0, ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+            // 启动耗时报告
+            final StartupProfiler p = profiler;
+            profiler = null;
+            if (p != null) {
+                log.info("Startup profile: {}", p.report(getAttr("sys.start.profileTop", Integer.class, 10)));
+                ep().fire(new EC("sys.profile", this).args(p.spans()));
+            }
+            if (getAttr("sys.env.watch", Boolean.class, false)) _envWatcher.get().start(); // 监控配置文件变化
             ep().fire(new EC("sys.started", this).completeFn(ec1 -> {
                 Supplier<Duration> nextTimeFn = () -> {
                     Integer minInterval = getAttr("sys.heartbeat.minInterval", Integer.class, 60);
@@ -294,16 +594,228 @@ public class AppContext {
                     @Override
                     public void run() {
                         ep().fire(new EC("sys.heartbeat", this));
-                        ep().fire("sched.after", nextTimeFn.get(), this);
+                        schedule(nextTimeFn.get(), this);
                     }
                 };
                 fn.run();
             }));
-        }));
+        };
+        ep().fire(startingEc.completeFn(ec -> starting.run()));
         return this;
     }
 
 
+    /**
+     * 按依赖关系并发启动服务(sys.start.parallel=true)
+     * 服务依赖: {@link Inject} 字段类型对应的服务, {@link DependsOn} 声明的服务
+     * 没有依赖关系的服务在线程池中并发执行各自的 sys.starting 监听, 启动时长趋近于最长的依赖链
+     * 被接管的监听会从 {@link #ep} 中移除, 其它 sys.starting 监听照常由事件触发
+     * @param ec sys.starting 事件
+     */
+    protected void startParallel(EC ec) {
+        final long begin = System.currentTimeMillis();
+        final Map<String, List<ListenerPoint>> startFns = new LinkedHashMap<>();
+        sourceMap.forEach((name, source) -> {
+            List<ListenerPoint> ms = startingMethods(source.getClass());
+            if (ms == null || ms.isEmpty()) return; // 不支持的监听方法, 由事件触发
+            startFns.put(name, ms);
+            ep().removeEvent("sys.starting", source);
+        });
+        // 依赖图
+        final Map<String, Set<String>> graph = new HashMap<>();
+        startFns.keySet().forEach(name -> {
+            Object source = sourceMap.get(name);
+            Set<String> deps = new LinkedHashSet<>();
+            DependsOn dependsOn = source.getClass().getAnnotation(DependsOn.class);
+            if (dependsOn != null) {
+                for (String dep : dependsOn.value()) {
+                    if (!sourceMap.containsKey(dep) && !lazySources.containsKey(dep)) {
+                        log.warn("Service '{}' depends on unknown service '{}', ignore this dependency", name, dep);
+                    }
+                    deps.add(dep);
+                }
+            }
+            for (InjectPoint point : injectPlan(source.getClass())) {
+                if (point.ep) continue;
+                sourceMap.forEach((n, o) -> {
+                    if (o != source && point.field.getType().isInstance(o) && (point.name.isEmpty() || point.name.equals(n))) deps.add(n);
+                });
+            }
+            deps.retainAll(startFns.keySet());
+            deps.remove(name);
+            graph.put(name, deps);
+        });
+        // 按依赖执行
+        final Map<String, CompletableFuture<Void>> futures = new HashMap<>();
+        final Map<String, long[]> timeline = new ConcurrentHashMap<>();
+        final Function<String, CompletableFuture<Void>> startNode = new Function<String, CompletableFuture<Void>>() {
+            final Set<String> visiting = new HashSet<>();
+            @Override
+            public CompletableFuture<Void> apply(String name) {
+                CompletableFuture<Void> f = futures.get(name);
+                if (f != null) return f;
+                if (!visiting.add(name)) {
+                    log.warn("Service start dependency cycle at '{}', ignore this dependency", name);
+                    return CompletableFuture.completedFuture(null);
+                }
+                CompletableFuture<?>[] deps = graph.get(name).stream().map(this).toArray(CompletableFuture[]::new);
+                visiting.remove(name);
+                f = CompletableFuture.allOf(deps).thenRunAsync(() -> {
+                    final long start = System.currentTimeMillis();
+                    Object source = sourceMap.get(name);
+                    for (ListenerPoint point : startFns.get(name)) invokeStarting(name, source, point.method, ec);
+                    timeline.put(name, new long[]{start - begin, System.currentTimeMillis() - begin});
+                }, exec());
+                futures.put(name, f);
+                return f;
+            }
+        };
+        CompletableFuture.allOf(startFns.keySet().stream().map(startNode).toArray(CompletableFuture[]::new)).join();
+        // 启动时间线
+        StringBuilder sb = new StringBuilder();
+        timeline.entrySet().stream().sorted(Comparator.comparingLong(e -> e.getValue()[0])).forEach(e -> {
+            sb.append("\n    ").append(e.getKey()).append(": ").append(e.getValue()[0]).append("ms ~ ").append(e.getValue()[1])
+                    .append("ms (").append(e.getValue()[1] - e.getValue()[0]).append("ms) after ").append(graph.get(e.getKey()));
+        });
+        log.info("Parallel started {} services in {}ms, timeline: {}", timeline.size(), System.currentTimeMillis() - begin, sb);
+    }
+
+
+    /**
+     * 记录每个 sys.starting 监听的耗时(sys.start.profile=true)
+     * 服务的 sys.starting 监听方法从 {@link #ep} 中移除, 换成同样 order/async 的计时监听 {@link #invokeStarting}
+     * 不支持直接调用的监听方法({@link #startingMethods(Class)})照常由事件触发, 只计入总耗时
+     * @param ec sys.starting 事件
+     */
+    protected void profileStarting(EC ec) {
+        sourceMap.forEach((name, source) -> {
+            final List<ListenerPoint> ms = startingMethods(source.getClass());
+            if (ms == null || ms.isEmpty()) return;
+            ep().removeEvent("sys.starting", source);
+            for (ListenerPoint point : ms) {
+                ep().listen("sys.starting", point.async, point.order, 1, () -> invokeStarting(name, source, point.method, ec));
+            }
+        });
+    }
+
+
+    /**
+     * 调用服务的 sys.starting 监听方法
+     * @param name 服务名
+     * @param source 服务
+     * @param m 监听方法 {@link #startingMethods(Class)}
+     * @param ec sys.starting 事件
+     */
+    protected void invokeStarting(String name, Object source, Method m, EC ec) {
+        final long begin = System.nanoTime();
+        try {
+            if (m.getParameterCount() == 0) m.invoke(source);
+            else m.invoke(source, ec);
+        } catch (InvocationTargetException ex) {
+            log.error("Start service '" + name + "' error", ex.getCause());
+        } catch (Throwable ex) {
+            log.error("Start service '" + name + "' error", ex);
+        }
+        profile("sys.starting", name + "#" + m.getName(), begin);
+    }
+
+
+    /**
+     * 记录启动步骤耗时. 启动完成后不再记录
+     * @param category 步骤类别
+     * @param name 步骤名
+     * @param beginNanos 开始时间点 {@link System#nanoTime()}
+     */
+    protected void profile(String category, String name, long beginNanos) {
+        final StartupProfiler p = profiler;
+        if (p != null) p.add(category, name, beginNanos);
+    }
+
+
+    /**
+     * 类中所有 sys.starting 监听方法
+     * @param clz 类
+     * @return 监听(已查找到方法). null: 有不支持直接调用的监听方法(参数只能为空或者{@link EC})
+     */
+    protected List<ListenerPoint> startingMethods(Class<?> clz) {
+        final List<ListenerPoint> ls = new ArrayList<>();
+        final Set<String> signatures = new HashSet<>();
+        final boolean[] supported = {true};
+        iterateListeners(clz, point -> {
+            if (!supported[0] || !Arrays.asList(point.names).contains("sys.starting")) return;
+            // 子类重写的方法只调用一次
+            if (!signatures.add(point.methodName + Arrays.toString(point.paramTypes))) return;
+            if (point.paramTypes.length > 1 || (point.paramTypes.length == 1 && !EC.class.getName().equals(point.paramTypes[0]))) {
+                supported[0] = false; return;
+            }
+            try {
+                point.method().setAccessible(true);
+                ls.add(point);
+            } catch (ReflectiveOperationException ex) { // 类没有经过处理器修改过, 由事件触发
+                log.warn("Aot index expired: {}. {}", point.clz.getName(), ex.toString());
+                supported[0] = false;
+            }
+        });
+        return supported[0] ? ls : null;
+    }
+
+
+    /**
+     * 关闭应用. 由 {@link #shutdownHook} 调用
+     * 总等待时长不超过 sys.stopWait(秒)
+     * 1. 触发 sys.stopping 通知各个模块服务关闭
+     * 2. 所有队列不再接收新任务, 等待已入队的任务执行完
+     * 3. 关闭定时器和系统线程池
+     * 4. 报告未执行(被丢弃)的任务
+     */
+    protected void shutdown() {
+        final long start = System.currentTimeMillis();
+        final long end = start + getAttr("sys.stopWait", Long.class, 30L) * 1000;
+        // 1. 通知各个模块服务关闭
+        CountDownLatch latch = new CountDownLatch(1);
+        ep().fire(new EC("sys.stopping", this).completeFn(ec -> latch.countDown()));
+        try {
+            latch.await(Math.max(0, end - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 2. 队列不再接收新任务, 并等待执行完
+        queues.values().forEach(Devourer::close);
+        // 所有队列共用一个截止时间: 各队列的任务是并行执行的, 依次等待每个队列的总时长不超过 end
+        for (Devourer devourer : queues.values()) {
+            if (Thread.currentThread().isInterrupted()) break;
+            final long left = end - System.currentTimeMillis();
+            if (left <= 0) break;
+            if (devourer.getWaitingCount() + devourer.getParallel() > 0) {
+                log.info("Draining queue: {}", devourer);
+                devourer.drain(Duration.ofMillis(left));
+            }
+        }
+        // 3. 关闭定时器, 线程池
+        if (_envWatcher.done()) _envWatcher.get().stop();
+        if (_wheel.done()) _wheel.get().stop();
+        List<Runnable> droppedExec = emptyList();
+        if (_exec.done()) {
+            _exec.get().shutdown();
+            try {
+                if (!_exec.get().awaitTermination(Math.max(0, end - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    droppedExec = _exec.get().shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                droppedExec = _exec.get().shutdownNow();
+            }
+        }
+        // 4. 报告被丢弃的任务
+        StringBuilder dropped = new StringBuilder();
+        queues.forEach((qName, devourer) -> {
+            if (devourer.getWaitingCount() > 0) dropped.append(qName).append(": ").append(devourer.getWaitingCount()).append(", ");
+        });
+        if (!droppedExec.isEmpty()) dropped.append("sys executor: ").append(droppedExec.size());
+        if (dropped.length() > 0) log.warn("Stopped Application '{}', dropped tasks: {}", name() + ":" + id(), dropped);
+        else log.info("Stopped Application '{}' in {} seconds", name() + ":" + id(), (System.currentTimeMillis() - start) / 1000.0);
+    }
+
+
     /**
      * 添加对象源
      * {@link #ep} 会找出source对象中所有其暴露的功能. 即: 用 {@link EL} 标注的方法
@@ -318,11 +830,13 @@ public class AppContext {
         if ("sys".equalsIgnoreCase(name) || "env".equalsIgnoreCase(name) || "log".equalsIgnoreCase(name) || "bean".equalsIgnoreCase(name)) {
             log.error("Name not allowed [sys, env, log, bean]. source: {}", source); return this;
         }
-        if (sourceMap.containsKey(name)) {
-            log.error("Already exist bean '{}': {}", name, sourceMap.get(name)); return this;
+        if (sourceMap.containsKey(name) || lazySources.containsKey(name)) {
+            log.error("Already exist bean '{}': {}", name, sourceMap.containsKey(name) ? sourceMap.get(name) : lazySources.get(name).type); return this;
         }
-        sourceMap.put(name, source);
+        final long begin = System.nanoTime();
+        sourceMap.put(name, source); beans.register(name, source);
         inject(source); ep().addListenerSource(source);
+        profile("addSource", name, begin);
         return this;
     }
 
@@ -342,6 +856,128 @@ public class AppContext {
     }
 
 
+    /**
+     * 延迟创建的对象源: 名字 -> 延迟对象源
+     */
+    protected final Map<String, LazySource>  lazySources = new ConcurrentHashMap<>();
+    /**
+     * 延迟对象源监听的事件: 事件名 -> 延迟对象源名字集
+     */
+    protected final Map<String, Set<String>> lazyEvents  = new ConcurrentHashMap<>();
+    /**
+     * 当前线程正在创建(还没注入完成)的延迟对象源: 名字 -> 对象源. 解决循环引用, 不对其它线程暴露
+     */
+    protected final ThreadLocal<Map<String, Object>> activating = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * 添加对象源(可延迟创建)
+     * 延迟: 只登记 type 中 {@link EL} 标注的事件名(不包括 sys.*, bean.get 事件),
+     *      第一次触发其中的事件 或者 第一次 {@link #bean} 查找到它时, 才创建对象, 注入并添加监听
+     * 注: 延迟创建的对象源不会收到 sys.starting 等启动事件; 被其它服务 {@link Inject} 时会立即创建
+     * @param type 对象类型
+     * @param name bean 名字
+     * @param factory 对象创建函数
+     * @param lazy 是否延迟创建
+     * @return {@link AppContext}
+     */
+    public <T> AppContext addSource(Class<T> type, String name, Supplier<? extends T> factory, boolean lazy) {
+        if (type == null) throw new IllegalArgumentException("Param type required");
+        if (factory == null) throw new IllegalArgumentException("Param factory required");
+        if (!lazy) return addSource(factory.get(), name);
+        if (name == null || name.isEmpty()) throw new IllegalArgumentException("Param name required");
+        if ("sys".equalsIgnoreCase(name) || "env".equalsIgnoreCase(name) || "log".equalsIgnoreCase(name) || "bean".equalsIgnoreCase(name)) {
+            log.error("Name not allowed [sys, env, log, bean]. source: {}", type); return this;
+        }
+        if (sourceMap.containsKey(name) || lazySources.containsKey(name)) {
+            log.error("Already exist bean '{}': {}", name, sourceMap.containsKey(name) ? sourceMap.get(name) : lazySources.get(name).type); return this;
+        }
+        final LazySource lazySource = new LazySource(type, factory);
+        iterateListeners(type, point -> {
+            for (String eName : point.names) {
+                eName = eName.replace("{name}", name);
+                if (eName.startsWith("sys.") || eName.endsWith("bean.get")) continue;
+                lazySource.events.add(eName);
+            }
+        });
+        lazySources.put(name, lazySource);
+        for (String eName : lazySource.events) {
+            lazyEvents.computeIfAbsent(eName, k -> ConcurrentHashMap.newKeySet()).add(name);
+        }
+        log.debug("Added lazy source '{}': {}, events: {}", name, type.getName(), lazySource.events);
+        return this;
+    }
+
+
+    /**
+     * 创建延迟对象源
+     * 注入和添加监听完成后才加入 {@link #sourceMap}, {@link #beans}: 其它线程不会拿到未初始化完成的对象
+     * @param name bean 名字
+     * @return 对象源
+     */
+    protected Object activate(String name) {
+        final LazySource lazySource = lazySources.get(name);
+        if (lazySource == null) return sourceMap.get(name);
+        synchronized (lazySource) {
+            if (lazySources.get(name) != lazySource) return sourceMap.get(name);
+            final Map<String, Object> current = activating.get();
+            if (current.containsKey(name)) return current.get(name); // 当前线程创建中(循环引用)
+            Object source = lazySource.factory.get();
+            if (source == null) throw new IllegalStateException("Lazy source '" + name + "' factory return null");
+            if (source instanceof ServerTpl && !name.equals(((ServerTpl) source).name)) {
+                log.warn("Lazy source name '{}' not equal ServerTpl name '{}'", name, ((ServerTpl) source).name);
+            }
+            current.put(name, source);
+            try {
+                inject(source); ep().addListenerSource(source);
+            } finally {
+                current.remove(name);
+                if (current.isEmpty()) activating.remove();
+            }
+            sourceMap.put(name, source); beans.register(name, source);
+            lazySources.remove(name);
+            for (String eName : lazySource.events) {
+                Set<String> names = lazyEvents.get(eName);
+                if (names != null) {
+                    names.remove(name);
+                    if (names.isEmpty()) lazyEvents.remove(eName, names);
+                }
+            }
+            log.info("Activated lazy source '{}': {}", name, source);
+            return source;
+        }
+    }
+
+
+    /**
+     * 事件触发前, 创建监听此事件的延迟对象源
+     * @param eName 事件名
+     */
+    protected void activateForEvent(String eName) {
+        if (lazyEvents.isEmpty() || eName == null) return;
+        Set<String> names = lazyEvents.get(eName);
+        if (names == null) return;
+        for (String name : names.toArray(new String[0])) activate(name);
+    }
+
+
+    /**
+     * 延迟对象源
+     */
+    protected static class LazySource {
+        protected final Class<?>          type;
+        protected final Supplier<?>       factory;
+        /**
+         * 监听的事件名
+         */
+        protected final Set<String>       events = new LinkedHashSet<>();
+
+        protected LazySource(Class<?> type, Supplier<?> factory) {
+            this.type = type;
+            this.factory = factory;
+        }
+    }
+
+
     /**
      * 加入到对列行器执行函数
      * 每个对列里面的函数同一时间只执行一个, 各对列相互执行互不影响
@@ -356,7 +992,14 @@ public class AppContext {
             synchronized (queues) {
                 devourer = queues.get(qName);
                 if (devourer == null) {
-                    devourer = new Devourer(qName, exec());
+                    devourer = new Devourer(qName, exec()) {
+                        @Override
+                        public Devourer suspend(Duration duration) {
+                            super.suspend(duration);
+                            schedule(duration, this::trigger); // 暂停时间到后自动恢复执行
+                            return this;
+                        }
+                    };
                     queues.put(qName, devourer);
                 }
             }
@@ -372,33 +1015,207 @@ public class AppContext {
      */
     @EL(name = "inject")
     public void inject(Object source) {
-        Utils.iterateField(source.getClass(), (field) -> {
-            Inject inject = field.getAnnotation(Inject.class);
-            if (inject == null) return;
+        final long begin = System.nanoTime();
+        for (InjectPoint point : injectPlan(source.getClass())) {
             try {
-                field.setAccessible(true);
-                Object v = field.get(source);
-                if (v != null) return; // 已经存在值则不需要再注入
+                Object v = point.get(source);
+                if (v != null) continue; // 已经存在值则不需要再注入
 
                 // 取值
-                if (EP.class.isAssignableFrom(field.getType())) v = wrapEpForSource(source);
-                else {
-                    if (inject.name().isEmpty()) {
-                        v = bean(field.getType(), field.getName());
-                        if (v == null) v = bean(field.getType(), null);
-                    }
-                    else {
-                        v = bean(field.getType(), inject.name());
-                    }
+                if (point.ep) v = wrapEpForSource(source);
+                else if (point.name.isEmpty()) {
+                    v = bean(point.field.getType(), point.field.getName());
+                    if (v == null) v = bean(point.field.getType(), null);
                 }
+                else v = bean(point.field.getType(), point.name);
 
-                if (v == null) return;
-                field.set(source, v);
-                log.trace("Inject field '{}' for object '{}'", field.getName(), source);
+                if (v == null) continue;
+                point.set(source, v);
+                log.trace("Inject field '{}' for object '{}'", point.field.getName(), source);
             } catch (Exception ex) {
-                log.error("Inject field '" + field.getName() + "' error!", ex);
+                log.error("Inject field '" + point.field.getName() + "' error!", ex);
             }
-        });
+        }
+        profile("inject", source.getClass().getName(), begin);
+    }
+
+
+    /**
+     * 类的注入计划缓存: 类 -> 所有{@link Inject}字段
+     */
+    protected final Map<Class<?>, List<InjectPoint>> injectPlans = new ConcurrentHashMap<>();
+
+    /**
+     * 获取类的注入计划
+     * 只在第一次遍历类的所有字段, 之后(重复注入, 动态添加bean)直接使用
+     * @param clz 类
+     * @return 所有{@link Inject}字段
+     */
+    protected List<InjectPoint> injectPlan(Class<?> clz) {
+        List<InjectPoint> plan = injectPlans.get(clz);
+        if (plan != null) return plan;
+        final List<InjectPoint> points = new ArrayList<>();
+        iterateInjectFields(clz, (field, name) -> points.add(new InjectPoint(field, name)));
+        plan = points.isEmpty() ? emptyList() : Collections.unmodifiableList(points);
+        injectPlans.put(clz, plan);
+        return plan;
+    }
+
+
+    /**
+     * 编译期生成的索引 {@link AotProcessor}
+     */
+    protected final Lazier<AotIndex> _aot = new Lazier<>(() -> AotIndex.load(getClass().getClassLoader()));
+
+    /**
+     * 遍历类(包括父类)的所有{@link Inject}字段
+     * 优先用编译期生成的索引 {@link AotIndex}(不读取注解), 不在索引中的类用反射
+     * @param clz 类
+     * @param fn 函数(字段, {@link Inject#name()})
+     */
+    protected void iterateInjectFields(Class<?> clz, BiConsumer<Field, String> fn) {
+        final AotIndex aot = _aot.get();
+        for (Class<?> c = clz; c != null && c != Object.class; c = c.getSuperclass()) {
+            List<String[]> injects = aot.isEmpty() ? null : aot.injects(c);
+            if (injects != null) {
+                final List<Field> fields = new ArrayList<>(injects.size());
+                try {
+                    for (String[] inject : injects) fields.add(c.getDeclaredField(inject[0]));
+                    for (int i = 0; i < fields.size(); i++) fn.accept(fields.get(i), injects.get(i)[1]);
+                    continue;
+                } catch (NoSuchFieldException ex) { // 类没有经过处理器修改过
+                    log.warn("Aot index expired: {}, use reflection. {}", c.getName(), ex.toString());
+                }
+            }
+            for (Field field : c.getDeclaredFields()) {
+                Inject inject = field.getAnnotation(Inject.class);
+                if (inject != null) fn.accept(field, inject.name());
+            }
+        }
+    }
+
+    /**
+     * 遍历类(包括父类)的所有{@link EL}监听方法
+     * 优先用编译期生成的索引 {@link AotIndex}(不读取注解, 不查找方法), 不在索引中的类用反射
+     * @param clz 类
+     * @param fn 函数
+     */
+    protected void iterateListeners(Class<?> clz, Consumer<ListenerPoint> fn) {
+        final AotIndex aot = _aot.get();
+        for (Class<?> c = clz; c != null && c != Object.class; c = c.getSuperclass()) {
+            List<AotIndex.Listen> listens = aot.isEmpty() ? null : aot.listeners(c);
+            if (listens != null) {
+                for (AotIndex.Listen listen : listens) fn.accept(new ListenerPoint(c, listen));
+                continue;
+            }
+            for (Method m : c.getDeclaredMethods()) {
+                EL el = m.getAnnotation(EL.class);
+                if (el != null) fn.accept(new ListenerPoint(m, el));
+            }
+        }
+    }
+
+
+    /**
+     * 监听点: 一个{@link EL}监听方法
+     */
+    protected static class ListenerPoint {
+        protected final Class<?> clz;
+        protected final String   methodName;
+        /**
+         * 参数类型 {@link Class#getName()}
+         */
+        protected final String[] paramTypes;
+        /**
+         * {@link EL#name()}
+         */
+        protected final String[] names;
+        protected final boolean  async;
+        protected final float    order;
+        /**
+         * 索引中的监听方法在第一次 {@link #method()} 时查找
+         */
+        protected Method         method;
+
+        protected ListenerPoint(Method m, EL el) {
+            this.clz = m.getDeclaringClass();
+            this.methodName = m.getName();
+            this.paramTypes = Arrays.stream(m.getParameterTypes()).map(Class::getName).toArray(String[]::new);
+            this.names = el.name();
+            this.async = el.async();
+            this.order = el.order();
+            this.method = m;
+        }
+
+        protected ListenerPoint(Class<?> clz, AotIndex.Listen listen) {
+            this.clz = clz;
+            this.methodName = listen.method;
+            this.paramTypes = listen.paramTypes;
+            this.names = listen.names;
+            this.async = listen.async;
+            this.order = listen.order;
+        }
+
+        protected Method method() throws ReflectiveOperationException {
+            if (method == null) method = AotIndex.method(clz, methodName, paramTypes);
+            return method;
+        }
+    }
+
+
+    /**
+     * 注入点: 一个{@link Inject}字段
+     */
+    protected static class InjectPoint {
+        protected final Field        field;
+        /**
+         * {@link Inject#name()}
+         */
+        protected final String       name;
+        /**
+         * 是否为{@link EP}字段
+         */
+        protected final boolean      ep;
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+
+        protected InjectPoint(Field field, String name) {
+            this.field = field;
+            this.name = name;
+            this.ep = EP.class.isAssignableFrom(field.getType());
+            field.setAccessible(true);
+            MethodHandle getter = null, setter = null;
+            try {
+                getter = MethodHandles.lookup().unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+                setter = MethodHandles.lookup().unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (IllegalAccessException ex) { // 例: final 字段, 用反射
+                getter = null; setter = null;
+            }
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        protected Object get(Object source) throws Exception {
+            if (getter == null) return field.get(source);
+            try {
+                return (Object) getter.invokeExact(source);
+            } catch (Exception | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        protected void set(Object source, Object value) throws Exception {
+            if (setter == null) { field.set(source, value); return; }
+            try {
+                setter.invokeExact(source, value);
+            } catch (Exception | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new RuntimeException(ex);
+            }
+        }
     }
 
 
@@ -408,8 +1225,38 @@ public class AppContext {
      * @param name 对象名字
      * @return bean
      */
-    public <T> T bean(Class<T> type, String name) {
-        return (T) ep().fire(new EC("bean.get", this).sync().args(type, name));
+    public <T> T bean(Class<T> type, String name) { return bean(type, name, this); }
+
+
+    /**
+     * 查找 bean 对象
+     * 1. 系统对象: 线程池, 事件中心, 应用上下文
+     * 2. {@link #beans} 索引查找
+     * 3. 没找到再触发 bean.get 事件(扩展点)
+     * @param type 对象类型
+     * @param name 对象名字
+     * @param source 查找者
+     * @return bean
+     */
+    protected <T> T bean(Class<T> type, String name, Object source) {
+        if (name == null && type != null) {
+            if (Executor.class.isAssignableFrom(type)) return (T) wrapExecForSource(source);
+            if (AppContext.class.isAssignableFrom(type)) return (T) this;
+            if (EP.class.isAssignableFrom(type)) return (T) wrapEpForSource(source);
+        }
+        T bean = beans.get(type, name);
+        if (bean != null) return bean;
+        if (!lazySources.isEmpty()) { // 延迟对象源
+            if (name != null) {
+                LazySource lazySource = lazySources.get(name);
+                if (lazySource != null && (type == null || type.isAssignableFrom(lazySource.type))) return (T) activate(name);
+            } else if (type != null) {
+                for (Map.Entry<String, LazySource> e : lazySources.entrySet()) {
+                    if (type.isAssignableFrom(e.getValue().type)) return (T) activate(e.getKey());
+                }
+            }
+        }
+        return (T) ep().fire(new EC("bean.get", source).sync().args(type, name));
     }
 
 
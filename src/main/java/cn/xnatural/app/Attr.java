@@ -0,0 +1,44 @@
+package cn.xnatural.app;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * <pre>
+ * 配置对象字段对应的属性 {@link ServerTpl#bindConfig(Class)}
+ * 校验不通过时抛出 IllegalArgumentException
+ * </pre>
+ */
+@Target({ FIELD })
+@Retention(RUNTIME)
+@Documented
+public @interface Attr {
+    /**
+     * 属性名(不包括服务名前缀). 默认: 字段名
+     */
+    String name() default "";
+
+    /**
+     * 属性是否必须存在
+     */
+    boolean required() default false;
+
+    /**
+     * 数值最小值
+     */
+    double min() default -Double.MAX_VALUE;
+
+    /**
+     * 数值最大值
+     */
+    double max() default Double.MAX_VALUE;
+
+    /**
+     * 值(字符串)需匹配的正则
+     */
+    String pattern() default "";
+}
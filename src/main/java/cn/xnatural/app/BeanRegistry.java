@@ -0,0 +1,171 @@
+package cn.xnatural.app;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * bean 索引注册表
+ * 按名字和类型(包括所有父类和接口)建立索引, 查找只需一次hash查找
+ * 1. 名字索引: 名字 -> bean
+ * 2. 类型索引: 类型(及其所有父类和接口) -> bean 列表(按注册顺序)
+ * 查找顺序: 服务暴露的 bean({@link ServerTpl#exposeBean}) 优先于服务对象源, 同一类中先注册的优先
+ */
+public class BeanRegistry {
+    /**
+     * 名字索引. 同名的 bean 按注册顺序排列
+     */
+    protected final Map<String, List<Object>>   names       = new ConcurrentHashMap<>();
+    /**
+     * 类型索引
+     */
+    protected final Map<Class<?>, List<Object>> types       = new ConcurrentHashMap<>();
+    /**
+     * 类型的继承树(所有父类和接口)缓存
+     */
+    protected final Map<Class<?>, Set<Class<?>>> hierarchies = new ConcurrentHashMap<>();
+    /**
+     * 服务暴露的 bean: 查找时排在服务对象源之前
+     */
+    protected final Set<Object>                  exposed     = Collections.newSetFromMap(new IdentityHashMap<>());
+
+
+    /**
+     * 注册 bean(服务对象源)
+     * 同名的 bean 可以有多个(类型不同), 查找时先注册的优先
+     * @param name bean 名字
+     * @param bean bean 对象
+     * @return {@link BeanRegistry}
+     */
+    public BeanRegistry register(String name, Object bean) { return register(name, bean, false); }
+
+
+    /**
+     * 注册 bean
+     * @param name bean 名字
+     * @param bean bean 对象
+     * @param expose 是否为服务暴露的 bean {@link ServerTpl#exposeBean}. 查找时优先于服务对象源
+     * @return {@link BeanRegistry}
+     */
+    public synchronized BeanRegistry register(String name, Object bean, boolean expose) {
+        if (name == null || name.isEmpty()) throw new IllegalArgumentException("Param name required");
+        if (bean == null) throw new IllegalArgumentException("Param bean required");
+        List<Object> named = names.computeIfAbsent(name, k -> new CopyOnWriteArrayList<>());
+        if (containsIdentity(named, bean)) return this;
+        if (expose) exposed.add(bean);
+        add(named, bean);
+        for (Class<?> c : hierarchy(bean.getClass())) {
+            List<Object> ls = types.computeIfAbsent(c, k -> new CopyOnWriteArrayList<>());
+            if (!containsIdentity(ls, bean)) add(ls, bean);
+        }
+        return this;
+    }
+
+
+    /**
+     * 加入列表: 暴露的 bean 排在所有服务对象源之前
+     */
+    protected void add(List<Object> ls, Object bean) {
+        if (!exposed.contains(bean)) { ls.add(bean); return; }
+        int i = 0;
+        while (i < ls.size() && exposed.contains(ls.get(i))) i++;
+        ls.add(i, bean);
+    }
+
+
+    /**
+     * 删除 bean
+     * @param name bean 名字
+     * @param bean bean 对象
+     * @return true: 删除成功
+     */
+    public synchronized boolean remove(String name, Object bean) {
+        List<Object> named = name == null ? null : names.get(name);
+        if (named == null || !named.removeIf(o -> o == bean)) return false;
+        if (named.isEmpty()) names.remove(name, named);
+        for (List<Object> ls : names.values()) { // 还有其它名字引用
+            if (containsIdentity(ls, bean)) return true;
+        }
+        for (Class<?> c : hierarchy(bean.getClass())) {
+            List<Object> ls = types.get(c);
+            if (ls != null) ls.removeIf(o -> o == bean);
+        }
+        exposed.remove(bean);
+        return true;
+    }
+
+
+    /**
+     * 查找 bean
+     * 1. 有名字: 按名字查找, 并匹配类型
+     * 2. 只有类型: 按类型查找第一个注册的 bean
+     * @param type bean 类型
+     * @param name bean 名字
+     * @return bean 对象. 没找到: null
+     */
+    public <T> T get(Class<T> type, String name) {
+        if (name != null) {
+            List<Object> named = names.get(name);
+            if (named == null) return null;
+            for (Object bean : named) {
+                if (type == null || type.isInstance(bean)) return (T) bean;
+            }
+            return null;
+        }
+        if (type == null) return null;
+        List<Object> ls = types.get(type);
+        if (ls == null) return null;
+        for (Object bean : ls) return (T) bean; // 迭代器快照, 避免并发删除
+        return null;
+    }
+
+
+    /**
+     * 按类型查找所有 bean
+     * @param type bean 类型
+     * @return bean 列表
+     */
+    public <T> List<T> getAll(Class<T> type) {
+        List<Object> ls = type == null ? null : types.get(type);
+        return ls == null ? Collections.emptyList() : (List<T>) Collections.unmodifiableList(ls);
+    }
+
+
+    /**
+     * bean 个数
+     */
+    public int size() { return names.size(); }
+
+
+    /**
+     * 类型的继承树: 自己, 所有父类, 所有接口
+     * @param clz 类型
+     * @return 继承树
+     */
+    protected Set<Class<?>> hierarchy(Class<?> clz) {
+        return hierarchies.computeIfAbsent(clz, k -> {
+            final Set<Class<?>> result = new LinkedHashSet<>();
+            final Deque<Class<?>> stack = new ArrayDeque<>();
+            stack.push(k);
+            while (!stack.isEmpty()) {
+                Class<?> c = stack.pop();
+                if (!result.add(c)) continue;
+                if (c.getSuperclass() != null) stack.push(c.getSuperclass());
+                for (Class<?> i : c.getInterfaces()) stack.push(i);
+            }
+            return result;
+        });
+    }
+
+
+    protected static boolean containsIdentity(List<Object> ls, Object bean) {
+        for (Object o : ls) {
+            if (o == bean) return true;
+        }
+        return false;
+    }
+
+
+    @Override
+    public String toString() { return "BeanRegistry{size: " + size() + ", types: " + types.size() + "}"; }
+}
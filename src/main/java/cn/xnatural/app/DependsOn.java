@@ -0,0 +1,25 @@
+package cn.xnatural.app;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * <pre>
+ * 声明服务启动依赖(并发启动时使用: sys.start.parallel=true)
+ * 被依赖的服务的 sys.starting 监听执行完后, 才执行当前服务的 sys.starting 监听
+ * 注: {@link Inject} 字段对应的服务自动为依赖, 不需要声明
+ * </pre>
+ */
+@Target({ TYPE })
+@Retention(RUNTIME)
+@Documented
+public @interface DependsOn {
+    /**
+     * 被依赖的服务名
+     */
+    String[] value();
+}
@@ -58,6 +58,18 @@ public class Devourer {
      * 平均每个占用执行时间
      */
     protected Long perSpend;
+    /**
+     * 是否已关闭(不再接收新任务) {@link #close()}
+     */
+    protected volatile boolean closed;
+    /**
+     * {@link #drain(Duration)} 等待任务执行完的通知锁
+     */
+    protected final Object idle = new Object();
+    /**
+     * 正在 {@link #drain(Duration)} 等待的线程数, 没有时任务执行完不用通知
+     */
+    protected final AtomicInteger drainers = new AtomicInteger();
 
 
     /**
@@ -107,13 +119,47 @@ public class Devourer {
      */
     public Devourer offer(Runnable fn) {
         if (fn == null) return this;
-        if (useLast) waiting.clear();
+        if (closed) {
+            log.warn("{} closed, drop task: {}", key, fn); return this;
+        }
+        if (useLast) {
+            for (Runnable task; (task = waiting.poll()) != null; ) discard(task);
+        }
         waiting.offer(fn);
         trigger();
         return this;
     }
 
 
+    /**
+     * 任务入对列, 并返回任务结果
+     * 任务执行失败时, 异常交给 {@link #errorHandler} 处理.
+     * 失败的任务被保留重试时({@link #failMaxKeep}), 结果等重试完成; 不再重试时, 结果以异常完成
+     * 被 {@link #useLast} 清除或者 {@link #shutdown()} 丢弃的任务, 其结果被取消
+     * @param fn 任务函数
+     * @return {@link CompletableFuture} 任务结果
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> fn) {
+        if (fn == null) throw new IllegalArgumentException("Param fn required");
+        final Submitted<T> task = new Submitted<>(fn);
+        if (closed) {
+            task.result.completeExceptionally(new RejectedExecutionException(key + " closed"));
+            return task.result;
+        }
+        offer(task);
+        return task.result;
+    }
+
+
+    /**
+     * 丢弃未执行的任务: {@link #submit(Callable)} 的任务结果被取消
+     * @param task 任务
+     */
+    protected void discard(Runnable task) {
+        if (task instanceof Submitted) ((Submitted<?>) task).result.cancel(false);
+    }
+
+
     /**
      * 不断的从 {@link #waiting} 对列中取出执行
      */
@@ -137,6 +183,7 @@ public class Devourer {
             } catch (Throwable ex) {
                 // 不用担心顺序, 因为如果并发为1, 一定是顺序的; 如果并发大于1, 执行顺序就不一定顺序了
                 if (task != null && failMaxKeep != null && failMaxKeep > 0 && (getWaitingCount() < failMaxKeep)) waiting.addFirst(task);
+                else if (task instanceof Submitted) ((Submitted<?>) task).result.completeExceptionally(ex); // 不再重试
                 if (errorHandler != null) {
                     try {
                         errorHandler.accept(ex, this);
@@ -161,6 +208,9 @@ public class Devourer {
                 }
                 lock.release();
                 if (!waiting.isEmpty()) trigger(); // 持续不断执行对列中的任务
+                if (drainers.get() > 0) {
+                    synchronized (idle) { idle.notifyAll(); }
+                }
             }
         });
     }
@@ -302,17 +352,81 @@ public class Devourer {
     public int getParallel() { return lock.getLatchSize(); }
 
 
+    /**
+     * 不再接收新任务, 已入队的任务继续执行
+     * @return {@link Devourer}
+     */
+    public Devourer close() { closed = true; trigger(); return this; }
+
+
+    /**
+     * 是否已关闭(不再接收新任务)
+     */
+    public boolean isClosed() { return closed; }
+
+
+    /**
+     * 等待对列中的任务执行完
+     * NOTE: 暂停中的对列不会等待
+     * @param timeout 最长等待时间
+     * @return 剩余未执行的任务数
+     */
+    public int drain(Duration timeout) {
+        final long end = System.currentTimeMillis() + (timeout == null ? 0 : timeout.toMillis());
+        trigger();
+        drainers.incrementAndGet();
+        try {
+            synchronized (idle) { // 每个任务执行完时通知(见 trigger), 不用轮询
+                for (long left = end - System.currentTimeMillis();
+                     (!waiting.isEmpty() || getParallel() > 0) && !isSuspended() && left > 0;
+                     left = end - System.currentTimeMillis()) {
+                    idle.wait(Math.min(left, 1000)); // 最多1秒检查一次暂停状态(暂停不会通知)
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            drainers.decrementAndGet();
+        }
+        return getWaitingCount();
+    }
+
+
     /**
      * 关闭
      */
     public void shutdown() {
-        waiting.clear();
+        closed = true;
+        for (Runnable task; (task = waiting.poll()) != null; ) discard(task);
         if (exec instanceof ExecutorService) ((ExecutorService) exec).shutdown();
     }
 
 
+    /**
+     * {@link #submit(Callable)} 提交的任务
+     */
+    protected static class Submitted<T> implements Runnable {
+        protected final Callable<T>          fn;
+        protected final CompletableFuture<T> result = new CompletableFuture<>();
+
+        protected Submitted(Callable<T> fn) { this.fn = fn; }
+
+        @Override
+        public void run() {
+            if (result.isDone()) return; // 已取消
+            try {
+                result.complete(fn.call());
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new CompletionException(ex); // result.get() 时拆出原始异常
+            }
+        }
+    }
+
+
     @Override
     public String toString() {
-        return key + "{parallel: " + getParallel() + ", waitingCount: " + getWaitingCount() + ", suspended: "+ isSuspended() + ", useLast: " + isUseLast() +"}";
+        return key + "{parallel: " + getParallel() + ", waitingCount: " + getWaitingCount() + ", suspended: "+ isSuspended() + ", useLast: " + isUseLast() + ", closed: " + isClosed() +"}";
     }
 }
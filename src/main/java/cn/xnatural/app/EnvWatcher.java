@@ -0,0 +1,162 @@
+package cn.xnatural.app;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 配置文件监控器
+ * 配置文件有变化时, 调用 {@link AppContext#reloadEnv()}
+ * 1. 优先使用 {@link WatchService} 监控配置文件所在目录
+ * 2. 不支持时, 按固定频率比较文件修改时间(轮询)
+ */
+public class EnvWatcher {
+    protected static final Logger log = LoggerFactory.getLogger(EnvWatcher.class);
+    protected final AppContext app;
+    /**
+     * 被监控的配置文件(可能不存在)
+     */
+    protected final List<File> files;
+    /**
+     * 轮询间隔
+     */
+    protected final Duration interval;
+    /**
+     * 文件最后修改时间. 0: 文件不存在
+     */
+    protected final Map<File, Long> lastModified = new HashMap<>();
+    /**
+     * 是否已有等待执行的重新加载(合并短时间内的多次变化)
+     */
+    protected final AtomicBoolean reloading = new AtomicBoolean(false);
+    protected WatchService watchService;
+    protected TimeWheel.Task pollTask;
+    protected volatile boolean stopped;
+
+
+    public EnvWatcher(AppContext app, List<File> files, Duration interval) {
+        if (app == null) throw new IllegalArgumentException("Param app required");
+        if (files == null) throw new IllegalArgumentException("Param files required");
+        this.app = app;
+        this.files = new ArrayList<>(files);
+        this.interval = interval == null ? Duration.ofSeconds(5) : interval;
+        for (File f : this.files) lastModified.put(f, f.lastModified());
+    }
+
+
+    /**
+     * 开始监控
+     * @return {@link EnvWatcher}
+     */
+    public synchronized EnvWatcher start() {
+        if (watchService != null || pollTask != null) return this;
+        stopped = false;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            final Set<Path> dirs = new HashSet<>();
+            for (File f : files) {
+                File dir = f.getParentFile();
+                if (dir != null && dir.isDirectory() && dirs.add(dir.toPath())) {
+                    dir.toPath().register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                }
+            }
+            Thread t = new Thread(this::watch, "env-watch");
+            t.setDaemon(true);
+            t.start();
+            log.info("Watching config files by WatchService: {}", dirs);
+        } catch (IOException | UnsupportedOperationException ex) {
+            log.warn("WatchService unavailable, poll config files every {}. {}", interval, ex.toString());
+            closeWatchService();
+            pollTask = app.scheduleAtFixedRate(interval, interval, this::poll);
+        }
+        return this;
+    }
+
+
+    /**
+     * {@link WatchService} 监控
+     */
+    protected void watch() {
+        final WatchService ws = watchService;
+        while (!stopped && ws != null) {
+            WatchKey key;
+            try {
+                key = ws.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                break;
+            }
+            boolean hit = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) { hit = true; continue; }
+                Path changed = ((Path) key.watchable()).resolve((Path) event.context());
+                for (File f : files) {
+                    if (f.toPath().equals(changed)) { hit = true; break; }
+                }
+            }
+            key.reset();
+            if (hit) changed();
+        }
+    }
+
+
+    /**
+     * 轮询: 比较文件修改时间
+     */
+    protected void poll() {
+        boolean hit = false;
+        for (File f : files) {
+            long t = f.lastModified();
+            Long old = lastModified.put(f, t);
+            if (old == null || old != t) hit = true;
+        }
+        if (hit) changed();
+    }
+
+
+    /**
+     * 配置文件有变化: 稍后重新加载(编辑器保存文件时会触发多次变化)
+     */
+    protected void changed() {
+        if (stopped || !reloading.compareAndSet(false, true)) return;
+        app.schedule(Duration.ofMillis(300), () -> {
+            reloading.set(false);
+            if (stopped) return;
+            try {
+                app.reloadEnv();
+            } catch (Throwable ex) {
+                log.error("Reload env error", ex);
+            }
+        });
+    }
+
+
+    /**
+     * 停止监控
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (pollTask != null) {
+            pollTask.cancel(); pollTask = null;
+        }
+        closeWatchService();
+    }
+
+
+    protected void closeWatchService() {
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            log.error("Close WatchService error", ex);
+        }
+        watchService = null;
+    }
+}
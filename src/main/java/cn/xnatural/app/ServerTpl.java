@@ -6,11 +6,16 @@ import cn.xnatural.enet.event.EP;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * 服务模板类
@@ -94,7 +99,12 @@ public class ServerTpl {
      * @return bean
      */
     protected <T> T bean(Class<T> type, String name) {
-        return ep == null ? null : (T) ep.fire(new EC("bean.get", this).sync().args(type, name));
+        if (ep == null) return null;
+        if (!AppContext.class.equals(type)) {
+            AppContext app = _app.get();
+            if (app != null) return app.bean(type, name, this); // 索引查找
+        }
+        return (T) ep.fire(new EC("bean.get", this).sync().args(type, name));
     }
 
     /**
@@ -126,6 +136,147 @@ public class ServerTpl {
     public ServerTpl async(Runnable fn) { return async(fn, null); }
 
 
+    /**
+     * 异步执行, 并返回执行结果
+     * @param fn 异步执行的函数
+     * @return {@link CompletableFuture} 执行结果
+     */
+    public <T> CompletableFuture<T> asyncSupply(Supplier<T> fn) {
+        if (fn == null) throw new IllegalArgumentException("Param fn required");
+        return CompletableFuture.supplyAsync(fn, _exec.get());
+    }
+
+
+    /**
+     * 并发执行多个函数, 等待所有结果 {@link #parallel(Duration, List)}
+     */
+    @SafeVarargs
+    public final <T> List<T> parallel(Duration deadline, Supplier<T>... calls) {
+        final List<Supplier<T>> ls = new ArrayList<>(calls == null ? 0 : calls.length);
+        if (calls != null) for (Supplier<T> call : calls) ls.add(call);
+        return parallel(deadline, ls);
+    }
+
+
+    /**
+     * 并发执行多个函数, 等待所有结果
+     * 任意一个失败或超过截止时间, 则取消(中断)其它未完成的函数
+     * @param deadline 截止时间. null: 不限制
+     * @param calls 执行函数集
+     * @return 按函数顺序的结果集
+     */
+    public <T> List<T> parallel(Duration deadline, List<Supplier<T>> calls) {
+        try {
+            return allOf(deadline, calls).get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+            throw new RuntimeException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+
+    /**
+     * 并发执行多个函数, 所有函数都成功才成功 {@link #allOf(Duration, List)}
+     */
+    @SafeVarargs
+    public final <T> CompletableFuture<List<T>> allOf(Duration deadline, Supplier<T>... calls) {
+        final List<Supplier<T>> ls = new ArrayList<>(calls == null ? 0 : calls.length);
+        if (calls != null) for (Supplier<T> call : calls) ls.add(call);
+        return allOf(deadline, ls);
+    }
+
+
+    /**
+     * 并发执行多个函数, 所有函数都成功才成功
+     * 任意一个失败或超过截止时间(异常: {@link TimeoutException}), 则取消(中断)其它未完成的函数
+     * @param deadline 截止时间. null: 不限制
+     * @param calls 执行函数集
+     * @return 按函数顺序的结果集
+     */
+    public <T> CompletableFuture<List<T>> allOf(Duration deadline, List<Supplier<T>> calls) {
+        final CompletableFuture<List<T>> result = new CompletableFuture<>();
+        if (calls == null || calls.isEmpty()) {
+            result.complete(new ArrayList<>(0)); return result;
+        }
+        final Object[] values = new Object[calls.size()];
+        final AtomicInteger left = new AtomicInteger(calls.size());
+        return fanOut(deadline, calls, result, (i, v) -> {
+            values[i] = v;
+            if (left.decrementAndGet() == 0) result.complete((List<T>) Arrays.asList(values));
+        }, (i, ex) -> result.completeExceptionally(ex));
+    }
+
+
+    /**
+     * 并发执行多个函数, 取第一个成功的结果 {@link #anyOf(Duration, List)}
+     */
+    @SafeVarargs
+    public final <T> CompletableFuture<T> anyOf(Duration deadline, Supplier<T>... calls) {
+        final List<Supplier<T>> ls = new ArrayList<>(calls == null ? 0 : calls.length);
+        if (calls != null) for (Supplier<T> call : calls) ls.add(call);
+        return anyOf(deadline, ls);
+    }
+
+
+    /**
+     * 并发执行多个函数, 取第一个成功的结果
+     * 得到结果或超过截止时间(异常: {@link TimeoutException}), 则取消(中断)其它未完成的函数
+     * 所有函数都失败时, 返回最后一个异常
+     * @param deadline 截止时间. null: 不限制
+     * @param calls 执行函数集
+     * @return 第一个成功的结果
+     */
+    public <T> CompletableFuture<T> anyOf(Duration deadline, List<Supplier<T>> calls) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        if (calls == null || calls.isEmpty()) {
+            result.completeExceptionally(new IllegalArgumentException("Param calls required")); return result;
+        }
+        final AtomicInteger failed = new AtomicInteger();
+        final int size = calls.size();
+        return fanOut(deadline, calls, result, (i, v) -> result.complete(v), (i, ex) -> {
+            if (failed.incrementAndGet() == size) result.completeExceptionally(ex);
+        });
+    }
+
+
+    /**
+     * 扇出执行: 把每个函数提交到线程池执行
+     * 结果完成(成功/失败/超时/取消)时, 取消(中断)所有未完成的函数, 避免线程被阻塞占用
+     * @param deadline 截止时间. null: 不限制
+     * @param calls 执行函数集
+     * @param result 结果
+     * @param successFn 单个函数成功回调(函数下标, 值)
+     * @param failFn 单个函数失败回调(函数下标, 异常)
+     * @return result
+     */
+    protected <T, R> CompletableFuture<R> fanOut(Duration deadline, List<Supplier<T>> calls, CompletableFuture<R> result,
+                                                 BiConsumer<Integer, T> successFn, BiConsumer<Integer, Throwable> failFn) {
+        final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+        final TimeWheel.Task timeout = deadline == null ? null : app().schedule(deadline, () -> result.completeExceptionally(new TimeoutException("Exceed deadline: " + deadline)));
+        result.whenComplete((r, ex) -> {
+            if (timeout != null) timeout.cancel();
+            for (Future<?> f : futures) f.cancel(true);
+        });
+        for (int i = 0; i < calls.size() && !result.isDone(); i++) {
+            final int idx = i;
+            final Supplier<T> call = calls.get(i);
+            futures.add(exec().submit(() -> {
+                if (result.isDone()) return;
+                T v;
+                try { v = call.get(); } catch (Throwable ex) {
+                    failFn.accept(idx, ex); return;
+                }
+                successFn.accept(idx, v);
+            }));
+        }
+        if (result.isDone()) for (Future<?> f : futures) f.cancel(true);
+        return result;
+    }
+
+
     /**
      * 对列执行
      * @param qName 对列名, 默认当前server名称
@@ -160,8 +311,12 @@ public class ServerTpl {
             names = new String[]{Character.toLowerCase(n.charAt(0)) + (n.length() > 1 ? n.substring(1) : "")};
         }
         for (String n : names) {
-            if (beanCtx.get(n) != null) log.warn("Override exist bean name '{}'", n);
-            beanCtx.put(n, bean);
+            Object old = beanCtx.put(n, bean);
+            if (old != null) {
+                log.warn("Override exist bean name '{}'", n);
+                _app.get().beans.remove(n, old);
+            }
+            _app.get().beans.register(n, bean, true);
         }
         ep.addListenerSource(bean); _app.get().inject(bean);
         return this;
@@ -216,18 +371,50 @@ public class ServerTpl {
      * @return 属性值
      */
     public <T> T getAttr(String key, Class<T> type, T defaultValue) {
-        Object obj = null;
-        for (Map.Entry<String, Object> entry : app().env().entrySet()) {
-            if ((name + "." + key).equals(entry.getKey())) {
-                obj = entry.getValue(); break;
-            }
+        AttrCache cache = attrCache.get(key);
+        if (cache == null) {
+            cache = new AttrCache(name + "." + key);
+            AttrCache old = attrCache.putIfAbsent(key, cache);
+            if (old != null) cache = old;
+        }
+        final Object raw = app().env().get(cache.fullKey);
+        if (raw == null) {
+            T v = Utils.to(null, type);
+            return v == null ? defaultValue : v;
+        }
+        final Object[] converted = cache.converted; // [原始值, 类型, 转换后的值]
+        T v;
+        if (converted != null && converted[0] == raw && converted[1] == type) v = (T) converted[2];
+        else {
+            v = Utils.to(raw, type);
+            cache.converted = new Object[]{raw, type, v};
         }
-        T v = Utils.to(obj, type);
         if (v == null) return defaultValue;
         return v;
     }
 
 
+    /**
+     * 属性缓存: 属性key -> {@link AttrCache}
+     */
+    protected final Map<String, AttrCache> attrCache = new ConcurrentHashMap<>();
+
+    /**
+     * 属性缓存
+     * 缓存完整属性名, 和最近一次按类型转换后的值
+     * 原始值(环境属性中的值)变了则重新转换, 所以直接修改 {@link AppContext#env()} 也能生效
+     */
+    protected static class AttrCache {
+        /**
+         * 完整属性名: 服务名.属性key
+         */
+        protected final    String   fullKey;
+        protected volatile Object[] converted;
+
+        protected AttrCache(String fullKey) { this.fullKey = fullKey; }
+    }
+
+
     protected Long getLong(String key, Long defaultValue) { return getAttr(key, Long.class, defaultValue); }
 
     protected Integer getInteger(String key, Integer defaultValue) { return getAttr(key, Integer.class, defaultValue); }
@@ -239,4 +426,161 @@ public class ServerTpl {
     protected String getStr(String key, String defaultValue) { return getAttr(key, String.class, defaultValue); }
 
     protected Boolean getBoolean(String key, Boolean defaultValue) { return getAttr(key, Boolean.class, defaultValue); }
+
+
+    /**
+     * 绑定配置对象: 把当前服务的属性(服务名.属性名)绑定到 type 类型的配置对象, 热点代码直接读字段, 不用每次转换
+     * 1. 配置类需有无参构造器, 每个非静态字段对应一个属性. 属性名默认为字段名, 可用 {@link Attr#name()} 指定
+     * 2. 属性不存在时保留字段初始值
+     * 3. 校验: 类型转换, {@link Attr}. 不通过抛 IllegalArgumentException
+     * 4. 第一次 get 时生成配置对象. 属性变化(事件 env.changed)时重新生成, 校验不通过则保留原配置对象
+     * NOTE: final 字段不要用常量初始化(会被编译器内联), 可在构造器中赋值
+     * <pre>
+     * static class Conf {
+     *     int maxConn = 10;
+     *     &#64;Attr(min = 1) long timeout = 3000;
+     * }
+     * final Supplier&lt;Conf&gt; conf = bindConfig(Conf.class);
+     * conf.get().timeout
+     * </pre>
+     * @param type 配置类
+     * @return 配置对象 {@link Supplier}
+     */
+    public <T> Supplier<T> bindConfig(Class<T> type) {
+        if (type == null) throw new IllegalArgumentException("Param type required");
+        return (Supplier<T>) configBindings.computeIfAbsent(type, t -> new ConfigBinding<>(this, t));
+    }
+
+
+    /**
+     * 属性变化时, 重新生成用过的配置对象 {@link #bindConfig(Class)}
+     * @param keys 变化的属性名集合
+     */
+    @EL(name = "env.changed")
+    protected void rebindConfig(Set<String> keys) {
+        if (configBindings.isEmpty()) return;
+        if (keys != null && keys.stream().noneMatch(k -> k.startsWith(name + "."))) return;
+        for (ConfigBinding<?> binding : configBindings.values()) {
+            if (binding.value == null) continue;
+            try {
+                binding.rebind();
+            } catch (IllegalArgumentException ex) {
+                log.error("Rebind config '" + binding.type.getName() + "' error, keep the old one", ex);
+            }
+        }
+    }
+
+
+    /**
+     * 生成配置对象
+     * @param type 配置类
+     * @param fields 配置字段
+     * @return 配置对象
+     */
+    protected <T> T createConfig(Class<T> type, List<Field> fields) {
+        final T cfg;
+        try {
+            Constructor<T> c = type.getDeclaredConstructor();
+            c.setAccessible(true);
+            cfg = c.newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("Config class '" + type.getName() + "' requires a no-arg constructor", ex);
+        }
+        final Map<String, Object> env = app().env();
+        for (Field field : fields) {
+            final Attr attr = field.getAnnotation(Attr.class);
+            final String key = name + "." + (attr == null || attr.name().isEmpty() ? field.getName() : attr.name());
+            final Object raw = env.get(key);
+            Object v;
+            try {
+                if (raw == null) {
+                    if (attr != null && attr.required()) throw new IllegalArgumentException("Attr '" + key + "' required");
+                    v = field.get(cfg);
+                } else {
+                    try {
+                        v = Utils.to(raw, field.getType());
+                    } catch (RuntimeException ex) {
+                        v = null;
+                    }
+                    if (v == null || !boxed(field.getType()).isInstance(v)) {
+                        throw new IllegalArgumentException("Attr '" + key + "' value '" + raw + "' can not convert to " + field.getType().getSimpleName());
+                    }
+                    field.set(cfg, v);
+                }
+            } catch (IllegalAccessException ex) {
+                throw new IllegalArgumentException("Config field '" + field + "' not accessible", ex);
+            }
+            if (attr == null || v == null) continue;
+            if (v instanceof Number) {
+                double d = ((Number) v).doubleValue();
+                if (d < attr.min() || d > attr.max()) {
+                    throw new IllegalArgumentException("Attr '" + key + "' value " + v + " out of range [" + attr.min() + ", " + attr.max() + "]");
+                }
+            }
+            if (!attr.pattern().isEmpty() && !v.toString().matches(attr.pattern())) {
+                throw new IllegalArgumentException("Attr '" + key + "' value '" + v + "' not match " + attr.pattern());
+            }
+        }
+        return cfg;
+    }
+
+
+    protected static Class<?> boxed(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        if (int.class.equals(type)) return Integer.class;
+        if (long.class.equals(type)) return Long.class;
+        if (boolean.class.equals(type)) return Boolean.class;
+        if (double.class.equals(type)) return Double.class;
+        if (float.class.equals(type)) return Float.class;
+        if (short.class.equals(type)) return Short.class;
+        if (byte.class.equals(type)) return Byte.class;
+        if (char.class.equals(type)) return Character.class;
+        return type;
+    }
+
+
+    /**
+     * 配置对象绑定: 配置类 -> {@link ConfigBinding}
+     */
+    protected final Map<Class<?>, ConfigBinding<?>> configBindings = new ConcurrentHashMap<>();
+
+    /**
+     * 配置对象绑定 {@link #bindConfig(Class)}
+     */
+    protected static class ConfigBinding<T> implements Supplier<T> {
+        protected final    ServerTpl   server;
+        protected final    Class<T>    type;
+        /**
+         * 配置字段(非静态)
+         */
+        protected final    List<Field> fields = new ArrayList<>();
+        protected volatile T           value;
+
+        protected ConfigBinding(ServerTpl server, Class<T> type) {
+            this.server = server;
+            this.type = type;
+            Utils.iterateField(type, f -> {
+                if (Modifier.isStatic(f.getModifiers()) || f.isSynthetic()) return;
+                f.setAccessible(true);
+                fields.add(f);
+            });
+        }
+
+        @Override
+        public T get() {
+            T v = value;
+            if (v == null) {
+                synchronized (this) {
+                    if (value == null) value = server.createConfig(type, fields);
+                    v = value;
+                }
+            }
+            return v;
+        }
+
+        /**
+         * 重新生成配置对象
+         */
+        protected synchronized void rebind() { value = server.createConfig(type, fields); }
+    }
 }
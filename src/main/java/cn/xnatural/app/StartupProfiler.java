@@ -0,0 +1,116 @@
+package cn.xnatural.app;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动耗时记录
+ * 记录启动过程中每一步(加载配置, 初始化事件中心, 添加服务, 注入, sys.starting 监听等)的开始时间点和耗时
+ * 开启: sys.start.profile=true {@link AppContext#start()}
+ */
+public class StartupProfiler {
+    /**
+     * 开始时间点(纳秒)
+     */
+    protected final long        origin;
+    /**
+     * 记录的步骤
+     */
+    protected final Queue<Span> spans  = new ConcurrentLinkedQueue<>();
+
+
+    public StartupProfiler() { this(System.nanoTime()); }
+
+    /**
+     * @param origin 开始时间点 {@link System#nanoTime()}
+     */
+    public StartupProfiler(long origin) { this.origin = origin; }
+
+
+    /**
+     * 记录一个步骤: 从 beginNanos 到现在
+     * @param category 步骤类别: env, ep, addSource, inject, sys.starting
+     * @param name 步骤名
+     * @param beginNanos 步骤开始时间点 {@link System#nanoTime()}
+     * @return {@link StartupProfiler}
+     */
+    public StartupProfiler add(String category, String name, long beginNanos) {
+        final long now = System.nanoTime();
+        spans.offer(new Span(category, name, beginNanos - origin, now - beginNanos));
+        return this;
+    }
+
+
+    /**
+     * 所有步骤, 按开始时间排序
+     * @return 步骤列表
+     */
+    public List<Span> spans() {
+        final List<Span> ls = new ArrayList<>(spans);
+        ls.sort(Comparator.comparingLong(s -> s.begin));
+        return ls;
+    }
+
+
+    /**
+     * 启动时间线报告
+     * @param topN 最慢的前几个步骤
+     * @return 报告字符串
+     */
+    public String report(int topN) {
+        final List<Span> ls = spans();
+        final StringBuilder sb = new StringBuilder();
+        for (Span span : ls) sb.append("\n    ").append(span);
+        final List<Span> slowest = new ArrayList<>(ls);
+        slowest.sort((s1, s2) -> Long.compare(s2.cost, s1.cost));
+        sb.append("\n  slowest:");
+        for (int i = 0; i < Math.min(topN, slowest.size()); i++) sb.append("\n    ").append(slowest.get(i));
+        return sb.toString();
+    }
+
+
+    /**
+     * 启动步骤
+     */
+    public static class Span {
+        /**
+         * 步骤类别
+         */
+        public final String category;
+        /**
+         * 步骤名
+         */
+        public final String name;
+        /**
+         * 相对于启动开始时间点(纳秒)
+         */
+        public final long   begin;
+        /**
+         * 耗时(纳秒)
+         */
+        public final long   cost;
+
+        protected Span(String category, String name, long begin, long cost) {
+            this.category = category;
+            this.name = name;
+            this.begin = begin;
+            this.cost = cost;
+        }
+
+        /**
+         * 开始时间点(毫秒)
+         */
+        public long getBeginMs() { return TimeUnit.NANOSECONDS.toMillis(begin); }
+
+        /**
+         * 耗时(毫秒)
+         */
+        public long getCostMs() { return TimeUnit.NANOSECONDS.toMillis(cost); }
+
+        @Override
+        public String toString() {
+            return String.format("%6dms +%5dms  %s: %s", getBeginMs(), getCostMs(), category, name);
+        }
+    }
+}
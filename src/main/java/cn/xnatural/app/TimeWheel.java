@@ -0,0 +1,254 @@
+package cn.xnatural.app;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 时间轮定时器(hashed wheel timer)
+ * 一个 tick 线程按固定刻度推进时间轮, 到期的任务交给执行器(线程池)执行
+ * 适合: 大量的延时/周期任务(心跳, 缓存清理, 重试退避等), 精度为一个刻度
+ * <pre>
+ * TimeWheel wheel = new TimeWheel(exec, 100, 512);
+ * wheel.schedule(Duration.ofSeconds(3), () -> log.info("3秒后执行"));
+ * wheel.scheduleAtFixedRate(Duration.ZERO, Duration.ofMinutes(1), () -> log.info("每分钟执行"));
+ * </pre>
+ */
+public class TimeWheel {
+    protected static final Logger log = LoggerFactory.getLogger(TimeWheel.class);
+    /**
+     * 线程池
+     */
+    protected final Executor exec;
+    /**
+     * 每个刻度时长(纳秒)
+     */
+    protected final long tickNanos;
+    /**
+     * 时间轮槽(只被 tick 线程访问)
+     */
+    protected final List<LinkedList<Task>> wheel;
+    /**
+     * 槽下标掩码. 槽个数为2的幂
+     */
+    protected final int mask;
+    /**
+     * 新加入的任务. 由 tick 线程转入到对应的槽
+     */
+    protected final Queue<Task> pending = new ConcurrentLinkedQueue<>();
+    /**
+     * 等待中的任务个数(包括周期任务). 槽只被 tick 线程访问, 其它线程通过此计数获取
+     */
+    protected final AtomicInteger waiting = new AtomicInteger();
+    /**
+     * 时间轮开始时间点(纳秒)
+     */
+    protected final long startNanos = System.nanoTime();
+    /**
+     * tick 线程
+     */
+    protected volatile Thread worker;
+    protected volatile boolean stopped;
+
+
+    /**
+     * 创建时间轮
+     * @param exec 执行到期任务的线程池
+     * @param tickMs 每个刻度时长(毫秒) >= 1
+     * @param ticksPerWheel 一圈的刻度数. 会被调整为2的幂
+     */
+    public TimeWheel(Executor exec, long tickMs, int ticksPerWheel) {
+        if (exec == null) throw new IllegalArgumentException("Param exec required");
+        if (tickMs < 1) throw new IllegalArgumentException("Param tickMs must >= 1");
+        if (ticksPerWheel < 1) throw new IllegalArgumentException("Param ticksPerWheel must >= 1");
+        this.exec = exec;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        int size = 1;
+        while (size < ticksPerWheel) size <<= 1;
+        this.mask = size - 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) wheel.add(new LinkedList<>());
+    }
+
+    /**
+     * 创建时间轮. 刻度100ms, 一圈512个刻度
+     * @param exec 执行到期任务的线程池
+     */
+    public TimeWheel(Executor exec) { this(exec, 100, 512); }
+
+
+    /**
+     * 延时执行
+     * @param delay 延时时长
+     * @param fn 任务函数
+     * @return {@link Task}
+     */
+    public Task schedule(Duration delay, Runnable fn) {
+        if (delay == null) throw new IllegalArgumentException("Param delay required");
+        return add(new Task(fn, System.nanoTime() - startNanos + Math.max(0, delay.toNanos()), 0));
+    }
+
+
+    /**
+     * 按固定频率执行
+     * NOTE: 执行时间点按 初始延时 + n * 周期 计算, 不会因为执行耗时而漂移
+     * @param initialDelay 第一次执行的延时
+     * @param period 执行周期
+     * @param fn 任务函数
+     * @return {@link Task}
+     */
+    public Task scheduleAtFixedRate(Duration initialDelay, Duration period, Runnable fn) {
+        if (initialDelay == null) throw new IllegalArgumentException("Param initialDelay required");
+        if (period == null || period.toNanos() <= 0) throw new IllegalArgumentException("Param period must > 0");
+        return add(new Task(fn, System.nanoTime() - startNanos + Math.max(0, initialDelay.toNanos()), period.toNanos()));
+    }
+
+
+    protected Task add(Task task) {
+        if (stopped) throw new IllegalStateException("TimeWheel stopped");
+        waiting.incrementAndGet();
+        pending.offer(task);
+        if (worker == null) {
+            synchronized (this) {
+                if (worker == null && !stopped) {
+                    worker = new Thread(this::run, "tick");
+                    worker.setDaemon(true);
+                    worker.start();
+                }
+            }
+        }
+        return task;
+    }
+
+
+    /**
+     * tick 线程: 每个刻度 转入新任务, 执行当前槽中到期的任务
+     */
+    protected void run() {
+        long tick = 0;
+        final List<Task> expired = new LinkedList<>();
+        while (!stopped) {
+            // 等到下一个刻度
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            for (long left = deadline - System.nanoTime(); left > 0 && !stopped; left = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(this, left);
+            }
+            if (stopped) break;
+            for (Task task = pending.poll(); task != null; task = pending.poll()) {
+                if (task.cancelled) waiting.decrementAndGet();
+                else place(task, tick);
+            }
+            for (Iterator<Task> it = wheel.get((int) (tick & mask)).iterator(); it.hasNext(); ) {
+                Task task = it.next();
+                if (task.cancelled) { it.remove(); waiting.decrementAndGet(); }
+                else if (task.rounds <= 0) { it.remove(); expired.add(task); }
+                else task.rounds--;
+            }
+            for (Task task : expired) {
+                dispatch(task);
+                if (task.period > 0 && !task.cancelled) {
+                    task.deadline += task.period;
+                    place(task, tick + 1);
+                } else waiting.decrementAndGet();
+            }
+            expired.clear();
+            tick++;
+        }
+    }
+
+
+    /**
+     * 把任务放入对应的槽
+     * @param task 任务
+     * @param tick 当前刻度
+     */
+    protected void place(Task task, long tick) {
+        long ticks = task.deadline / tickNanos;
+        task.rounds = (ticks - tick) / wheel.size();
+        wheel.get((int) (Math.max(ticks, tick) & mask)).add(task);
+    }
+
+
+    /**
+     * 执行到期任务
+     * @param task 任务
+     */
+    protected void dispatch(Task task) {
+        try {
+            exec.execute(() -> {
+                try { task.fn.run(); } catch (Throwable ex) {
+                    log.error("TimeWheel task error", ex);
+                }
+            });
+        } catch (Throwable ex) {
+            log.error("TimeWheel dispatch error", ex);
+        }
+    }
+
+
+    /**
+     * 等待中的任务个数(包括周期任务)
+     */
+    public int getWaitingCount() { return waiting.get(); }
+
+
+    /**
+     * 停止时间轮. 未到期的任务不再执行
+     */
+    public void stop() {
+        stopped = true;
+        Thread t = worker;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+
+    @Override
+    public String toString() {
+        return "TimeWheel{tickMs: " + TimeUnit.NANOSECONDS.toMillis(tickNanos) + ", ticksPerWheel: " + wheel.size() + ", stopped: " + stopped + "}";
+    }
+
+
+    /**
+     * 定时任务
+     */
+    public static class Task {
+        protected final Runnable fn;
+        /**
+         * 周期(纳秒). 0: 只执行一次
+         */
+        protected final long period;
+        /**
+         * 下次执行时间点(相对于时间轮开始时间, 纳秒)
+         */
+        protected long deadline;
+        /**
+         * 剩余圈数
+         */
+        protected long rounds;
+        protected volatile boolean cancelled;
+
+        protected Task(Runnable fn, long deadline, long period) {
+            if (fn == null) throw new IllegalArgumentException("Param fn required");
+            this.fn = fn;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * 取消任务
+         */
+        public void cancel() { cancelled = true; }
+
+        /**
+         * 是否已取消
+         */
+        public boolean isCancelled() { return cancelled; }
+    }
+}
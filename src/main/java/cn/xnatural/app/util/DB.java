@@ -1,16 +1,36 @@
 package cn.xnatural.app.util;
 
+import cn.xnatural.app.Utils;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.*;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 数据库 sql 操作工具
@@ -29,6 +49,42 @@ public class DB implements AutoCloseable {
      * 最大返回条数限制
      */
     protected Integer maxRows = 5000;
+    /**
+     * 流式查询每次从数据库获取的条数 {@link #stream(String, Object...)}
+     */
+    protected Integer fetchSize = 1000;
+    /**
+     * 每个连接缓存的语句个数. 0: 不缓存 {@link #setStmtCacheSize(int)}
+     */
+    protected int stmtCacheSize = 0;
+    /**
+     * 连接的语句缓存: 物理连接 -> 语句缓存
+     */
+    protected final Map<Connection, StmtCache> stmtCaches = new IdentityHashMap<>();
+    /**
+     * 语句释放次数: 每 1024 次清除一次已关闭连接的语句缓存 {@link #sweepStmtCaches()}
+     */
+    protected final AtomicInteger stmtReleases = new AtomicInteger();
+    /**
+     * 异步执行的等待队列大小 {@link #async(Supplier)}
+     */
+    protected int asyncQueueSize = 10000;
+    /**
+     * 异步执行线程池: 线程数和连接池最大连接数一致 {@link #async(Supplier)}
+     */
+    protected volatile ThreadPoolExecutor asyncExec;
+    /**
+     * 查询结果缓存. null: 不缓存 {@link #setQueryCache(int, Duration)}
+     */
+    protected volatile QueryCache queryCache;
+    /**
+     * 当前线程事务中执行过的更新语句: 事务结束后再删除一次缓存 {@link #modify(String, Supplier)}
+     */
+    protected final ThreadLocal<List<String>> txModified = new ThreadLocal<>();
+    /**
+     * sql 监控. null: 不监控 {@link #setMonitor(Duration)}
+     */
+    protected volatile SqlMonitor monitor;
     /**
      * dataSource 属性集
      */
@@ -124,6 +180,263 @@ public class DB implements AutoCloseable {
     }
 
 
+    /**
+     * 设置流式查询每次从数据库获取的条数
+     * @param fetchSize > 0
+     * @return {@link DB}
+     */
+    public DB setFetchSize(int fetchSize) {
+        if (fetchSize < 1) throw new IllegalArgumentException("Param fetchSize must > 0");
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+
+    /**
+     * 设置每个连接缓存的语句个数
+     * 语句在取到的连接上创建(经过连接池的监控, 泄漏检测等), 按物理连接缓存
+     * 缓存的语句只在创建它的连接上重用: 连接池每次借出新的包装连接时(druid, Hikari), 只在同一次借出(例: 事务, 批量)中重用
+     * 内置连接池 {@link DBPool} 的语句跨借出重用
+     * @param size 0: 不缓存
+     * @return {@link DB}
+     */
+    public DB setStmtCacheSize(int size) {
+        if (size < 0) throw new IllegalArgumentException("Param size must >= 0");
+        this.stmtCacheSize = size;
+        return this;
+    }
+
+
+    /**
+     * 设置异步执行的等待队列大小. 队列满时 {@link #async(Supplier)} 返回的 {@link CompletableFuture} 以 {@link RejectedExecutionException} 结束
+     * @param size > 0
+     * @return {@link DB}
+     */
+    public DB setAsyncQueueSize(int size) {
+        if (size < 1) throw new IllegalArgumentException("Param size must > 0");
+        if (asyncExec != null) throw new RuntimeException("async executor already created");
+        this.asyncQueueSize = size;
+        return this;
+    }
+
+
+    /**
+     * 在 {@link DB} 专用的线程池中异步执行
+     * 线程数为连接池的最大连接数(maxActive/maximumPoolSize/maxTotal), 慢 sql 不会占用应用的 sys 线程池
+     * NOTE: 在其它线程执行, 不参与当前线程的事务 {@link #trans(Supplier)}
+     * @param fn 执行函数
+     * @param <T> 返回类型
+     * @return {@link CompletableFuture}
+     */
+    public <T> CompletableFuture<T> async(Supplier<T> fn) {
+        if (fn == null) throw new IllegalArgumentException("Param fn required");
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            asyncExec().execute(() -> {
+                try {
+                    future.complete(fn.get());
+                } catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+
+    /**
+     * 异步查询多条数据 {@link #rows(String, Object...)}
+     * @param sql sql 语句
+     * @param params sql参数
+     * @return {@link CompletableFuture}
+     */
+    public CompletableFuture<List<Map<String, Object>>> rowsAsync(String sql, Object...params) {
+        return async(() -> rows(sql, params));
+    }
+
+
+    /**
+     * 异步插入/更新数据 {@link #execute(String, Object...)}
+     * @param sql sql 语句
+     * @param params 参数
+     * @return {@link CompletableFuture}
+     */
+    public CompletableFuture<Integer> executeAsync(String sql, Object...params) {
+        return async(() -> execute(sql, params));
+    }
+
+
+    /**
+     * 异步批量执行 {@link #batch(String, List, int)}
+     * @param sql sql 语句
+     * @param params 每条记录的参数
+     * @param batchSize 每批条数
+     * @return {@link CompletableFuture}
+     */
+    public CompletableFuture<int[]> batchAsync(String sql, List<Object[]> params, int batchSize) {
+        return async(() -> batch(sql, params, batchSize));
+    }
+
+
+    /**
+     * 异步执行线程池
+     */
+    protected ThreadPoolExecutor asyncExec() {
+        if (asyncExec == null) {
+            synchronized (this) {
+                if (asyncExec == null) {
+                    init();
+                    final int size = maxActive();
+                    final AtomicInteger i = new AtomicInteger(1);
+                    final ThreadPoolExecutor exec = new ThreadPoolExecutor(
+                            size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(asyncQueueSize),
+                            r -> {
+                                Thread t = new Thread(r, name + "-async-" + i.getAndIncrement());
+                                t.setDaemon(true);
+                                return t;
+                            }
+                    );
+                    exec.allowCoreThreadTimeOut(true);
+                    asyncExec = exec;
+                }
+            }
+        }
+        return asyncExec;
+    }
+
+
+    /**
+     * 连接池的最大连接数. 取不到时为 8
+     */
+    protected int maxActive() {
+        for (String key : Arrays.asList("maxActive", "maximumPoolSize", "maxTotal")) {
+            Object v = dsAttr.get(key);
+            if (v == null) continue;
+            try {
+                int size = Integer.parseInt(v.toString().trim());
+                if (size > 0) return size;
+            } catch (NumberFormatException ex) {}
+        }
+        // 外部数据源: druid getMaxActive, Hikari getMaximumPoolSize, dbcp2 getMaxTotal
+        for (String getter : Arrays.asList("getMaxActive", "getMaximumPoolSize", "getMaxTotal")) {
+            try {
+                Object v = dataSource.getClass().getMethod(getter).invoke(dataSource);
+                if (v instanceof Number && ((Number) v).intValue() > 0) return ((Number) v).intValue();
+            } catch (Exception ex) {}
+        }
+        return 8;
+    }
+
+
+    /**
+     * 开启查询结果缓存: {@link #rows}, {@link #row}, {@link #single} 的结果按 (sql, 参数) 缓存 {@link QueryCache}
+     * 更新语句({@link #execute}, {@link #batch}, {@link #insertWithGeneratedKey}) 删除所涉及表的缓存, {@link #call} 删除所有缓存
+     * NOTE: 只能感知通过当前 {@link DB} 执行的更新. 事务中的查询不走缓存
+     * @param maxSize 最多缓存条数. 0: 关闭缓存
+     * @param ttl 缓存过期时间
+     * @return {@link DB}
+     */
+    public DB setQueryCache(int maxSize, Duration ttl) {
+        if (maxSize < 0) throw new IllegalArgumentException("Param maxSize must >= 0");
+        this.queryCache = maxSize == 0 ? null : new QueryCache(maxSize, ttl);
+        return this;
+    }
+
+
+    /**
+     * 删除表的查询结果缓存(表被其它程序更新时)
+     * @param tables 表名. 为空时删除所有缓存
+     * @return {@link DB}
+     */
+    public DB invalidateCache(String... tables) {
+        final QueryCache cache = queryCache;
+        if (cache == null) return this;
+        if (tables == null || tables.length == 0) cache.clear();
+        else cache.invalidateTables(Arrays.asList(tables));
+        return this;
+    }
+
+
+    /**
+     * 查询: 开启了缓存并且不在事务中时走缓存
+     * @param kind 查询种类
+     * @param copier 复制缓存的结果返回(防止调用方修改缓存)
+     */
+    protected <T> T cached(String kind, String sql, Object[] params, Supplier<T> loader, Function<T, T> copier) {
+        final QueryCache cache = queryCache;
+        if (cache == null || txConn.get() != null) return loader.get();
+        final T value = cache.get(kind, sql, params, loader);
+        return value == null ? null : copier.apply(value);
+    }
+
+
+    /**
+     * 更新: 执行完后删除所涉及表的缓存. 在事务中时, 事务结束后再删除一次(防止事务提交前被其它线程缓存了旧数据)
+     * @param sql 更新语句. null: 删除所有缓存
+     */
+    protected <T> T modify(String sql, Supplier<T> fn) {
+        try {
+            return fn.get();
+        } finally {
+            final QueryCache cache = queryCache;
+            if (cache != null) {
+                if (sql == null) cache.clear();
+                else cache.invalidate(sql);
+                if (txConn.get() != null) {
+                    List<String> sqls = txModified.get();
+                    if (sqls == null) txModified.set(sqls = new ArrayList<>());
+                    sqls.add(sql);
+                }
+            }
+        }
+    }
+
+
+    protected static List<Map<String, Object>> copyRows(List<Map<String, Object>> rows) {
+        final List<Map<String, Object>> result = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) result.add(new LinkedHashMap<>(row));
+        return result;
+    }
+
+
+    /**
+     * 开启 sql 监控(不依赖连接池实现): 按 sql 指纹统计获取连接耗时, 执行耗时分布, 返回/影响行数 {@link SqlMonitor}
+     * 并注册 JMX: cn.xnatural.app:type=DB,name=DB名
+     * 注意: JMX 强引用监控对象, 不用时必须 {@link #close()} (或 setMonitor(null)) 注销, 否则统计数据一直不会释放
+     * @param slowThreshold 执行耗时超过此值的 sql 打印警告日志. null: 关闭监控
+     * @return {@link DB}
+     */
+    public DB setMonitor(Duration slowThreshold) {
+        try {
+            final ObjectName objectName = new ObjectName("cn.xnatural.app:type=DB,name=" + name);
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            if (slowThreshold == null) {
+                monitor = null;
+                return this;
+            }
+            final SqlMonitor m = new SqlMonitor(name, slowThreshold);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(m.mbean(), SqlMonitor.MBean.class), objectName);
+            monitor = m;
+        } catch (IllegalArgumentException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        return this;
+    }
+
+
+    /**
+     * sql 监控
+     * @return null: 没有开启 {@link #setMonitor(Duration)}
+     */
+    public SqlMonitor getMonitor() { return monitor; }
+
+
     /**
      * 执行连接
      * @param fn 函数
@@ -131,14 +444,20 @@ public class DB implements AutoCloseable {
      */
     public <T> T withConn(Function<Connection, T> fn) {
         init();
+        final SqlMonitor m = monitor;
         Connection conn = null;
         try {
-            conn = txConn.get() == null ? dataSource.getConnection() : txConn.get();
+            if (txConn.get() == null) {
+                final long begin = m == null ? 0 : System.nanoTime();
+                conn = dataSource.getConnection();
+                if (m != null) m.acquired(System.nanoTime() - begin);
+            } else conn = txConn.get();
             return fn.apply(conn);
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
         } finally {
-            if (txConn.get() == null) { // 证明当前线程没有事务, 需要直接释放连接
+            if (m != null) m.released();
+            if (txConn.get() == null && conn != null) { // 证明当前线程没有事务, 需要直接释放连接
                 try {
                     conn.close();
                 } catch (SQLException ex) {
@@ -149,6 +468,23 @@ public class DB implements AutoCloseable {
     }
 
 
+    /**
+     * 执行读连接: 查询 {@link #rows}, {@link #row}, {@link #single}, {@link #query}, {@link #compactRows} 用
+     * 默认和 {@link #withConn(Function)} 一样. 读写分离时从从库取连接 {@link RoutingDB}
+     * @param fn 函数
+     * @return 函数返回值
+     */
+    protected <T> T withReadConn(Function<Connection, T> fn) { return withConn(fn); }
+
+
+    /**
+     * 获取读连接(由调用方关闭): 流式查询 {@link #stream} 用
+     * 默认从 {@link #dataSource} 获取. 读写分离时从从库获取 {@link RoutingDB}
+     * @return {@link Connection}
+     */
+    protected Connection readConnection() throws SQLException { return dataSource.getConnection(); }
+
+
     /**
      * 开启一个事务
      * @param fn 事务执行函数
@@ -170,6 +506,11 @@ public class DB implements AutoCloseable {
                     txConn.set(null);
                     conn.setAutoCommit(ac);
                     conn.close();
+                    final List<String> sqls = txModified.get();
+                    if (sqls != null) {
+                        txModified.remove();
+                        for (String sql : sqls) modify(sql, () -> null);
+                    }
                 }
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
@@ -185,14 +526,112 @@ public class DB implements AutoCloseable {
      * @return 成功条数
      */
     public int execute(String sql, Object...params) {
-        return withConn(conn -> {
-            try (PreparedStatement pst = conn.prepareStatement(sql)) {
-                fillParam(pst, params);
-                return pst.executeUpdate();
+        return modify(sql, () -> withConn(conn -> {
+            try {
+                return withStmt(conn, sql, pst -> {
+                    fillParam(pst, params);
+                    return pst.executeUpdate();
+                });
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
-        });
+        }));
+    }
+
+
+    /**
+     * 批量执行(插入/更新): 按 batchSize 分批 addBatch/executeBatch
+     * @param sql sql 语句
+     * @param params 每条记录的参数
+     * @param batchSize 每批条数
+     * @return 每条记录的影响条数(驱动不返回时为 {@link Statement#SUCCESS_NO_INFO})
+     */
+    public int[] batch(String sql, List<Object[]> params, int batchSize) { return batch(sql, params, batchSize, false); }
+
+
+    /**
+     * 批量执行(插入/更新): 按 batchSize 分批 addBatch/executeBatch
+     * @param sql sql 语句
+     * @param params 每条记录的参数
+     * @param batchSize 每批条数
+     * @param transChunk 是否每批一个事务. 某批失败时回滚该批并抛出异常, 之前的批次已提交. 已在事务 {@link #trans} 中时忽略
+     * @return 每条记录的影响条数(驱动不返回时为 {@link Statement#SUCCESS_NO_INFO})
+     */
+    public int[] batch(String sql, List<Object[]> params, int batchSize, boolean transChunk) {
+        return doBatch(sql, params, batchSize, transChunk, null);
+    }
+
+
+    /**
+     * 批量插入 并 返回每条记录的第一个数据库自生成字段
+     * @param sql sql 语句
+     * @param params 每条记录的参数
+     * @param batchSize 每批条数
+     * @return 自生成字段的值
+     */
+    public List<Object> batchWithGeneratedKey(String sql, List<Object[]> params, int batchSize) {
+        final List<Object> keys = new ArrayList<>(params == null ? 0 : params.size());
+        doBatch(sql, params, batchSize, false, keys);
+        return keys;
+    }
+
+
+    /**
+     * 分批执行
+     * @param keys 不为空时收集自生成字段
+     */
+    protected int[] doBatch(String sql, List<Object[]> params, int batchSize, boolean transChunk, List<Object> keys) {
+        if (batchSize < 1) throw new IllegalArgumentException("Param batchSize must > 0");
+        if (params == null || params.isEmpty()) return new int[0];
+        return modify(sql, () -> withConn(conn -> {
+            final boolean chunkTx = transChunk && txConn.get() == null;
+            try {
+                if (keys == null) return withStmt(conn, sql, pst -> executeChunks(conn, pst, params, batchSize, chunkTx, null));
+                try (PreparedStatement pst = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    return timed(sql, pst, p -> executeChunks(conn, p, params, batchSize, chunkTx, keys), DB::countRows);
+                }
+            } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            }
+        }));
+    }
+
+
+    /**
+     * 逐批执行
+     * @param chunkTx 是否每批一个事务
+     * @param keys 不为空时收集自生成字段
+     * @return 每条记录的影响条数
+     */
+    protected int[] executeChunks(Connection conn, PreparedStatement pst, List<Object[]> params, int batchSize, boolean chunkTx, List<Object> keys) throws SQLException {
+        final int[] result = new int[params.size()];
+        final boolean ac = conn.getAutoCommit();
+        if (chunkTx && ac) conn.setAutoCommit(false);
+        try {
+            for (int from = 0; from < params.size(); from += batchSize) {
+                final int to = Math.min(params.size(), from + batchSize);
+                try {
+                    for (Object[] row : params.subList(from, to)) {
+                        setParams(pst, row);
+                        pst.addBatch();
+                    }
+                    int[] counts = pst.executeBatch();
+                    System.arraycopy(counts, 0, result, from, Math.min(counts.length, to - from));
+                    if (keys != null) {
+                        try (ResultSet rs = pst.getGeneratedKeys()) {
+                            while (rs.next()) keys.add(rs.getObject(1));
+                        }
+                    }
+                    if (chunkTx) conn.commit();
+                } catch (SQLException ex) {
+                    if (chunkTx) conn.rollback();
+                    throw ex;
+                }
+            }
+        } finally {
+            if (chunkTx && ac) conn.setAutoCommit(true);
+        }
+        return result;
     }
 
 
@@ -203,14 +642,16 @@ public class DB implements AutoCloseable {
      * @return 影响条数
      */
     public int call(String sql, Object...params) {
-        return withConn(conn -> {
+        return modify(null, () -> withConn(conn -> {
             try (CallableStatement cst = conn.prepareCall(sql)) {
-                fillParam(cst, params);
-                return cst.executeUpdate();
+                return timed(sql, cst, p -> {
+                    fillParam(p, params);
+                    return p.executeUpdate();
+                }, DB::countRows);
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
-        });
+        }));
     }
 
 
@@ -221,18 +662,19 @@ public class DB implements AutoCloseable {
      * @return 自生成字段的值
      */
     public Object insertWithGeneratedKey(String sql, Object...params) {
-        return withConn(conn -> {
+        return modify(sql, () -> withConn(conn -> {
             try (PreparedStatement pst = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-                fillParam(pst, params);
-                pst.executeUpdate();
-                try (ResultSet rs = pst.getGeneratedKeys()) {
-                    if (rs.next()) return rs.getObject(1);
-                }
+                return timed(sql, pst, p -> {
+                    fillParam(p, params);
+                    p.executeUpdate();
+                    try (ResultSet rs = p.getGeneratedKeys()) {
+                        return rs.next() ? rs.getObject(1) : null;
+                    }
+                }, key -> 1);
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
-            return null;
-        });
+        }));
     }
 
 
@@ -244,23 +686,248 @@ public class DB implements AutoCloseable {
      */
     public List<Map<String, Object>> rows(String sql, Object...params) {
         final List<Map<String, Object>> result = new LinkedList<>();
-        return withConn(conn -> {
-            try (PreparedStatement pst = conn.prepareStatement(sql)) {
-                fillParam(pst, params);
-                try (ResultSet rs = pst.executeQuery()) {
-                    while (rs.next()) {
-                        ResultSetMetaData metadata = rs.getMetaData();
-                        Map<String, Object> row = new LinkedHashMap<>(metadata.getColumnCount(), 1);
-                        result.add(row);
-                        for (int i = 1; i <= metadata.getColumnCount(); i++) {
-                            row.put(metadata.getColumnLabel(i), rs.getObject(i));
+        return cached("rows", sql, params, () -> withReadConn(conn -> {
+            try {
+                withStmt(conn, sql, pst -> {
+                    fillParam(pst, params);
+                    try (ResultSet rs = pst.executeQuery()) {
+                        final String[] labels = labels(rs);
+                        while (rs.next()) {
+                            Map<String, Object> row = new LinkedHashMap<>(labels.length, 1);
+                            result.add(row);
+                            for (int i = 0; i < labels.length; i++) {
+                                row.put(labels[i], rs.getObject(i + 1));
+                            }
                         }
                     }
-                }
+                    return result;
+                });
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
             return result;
+        }), DB::copyRows);
+    }
+
+
+    /**
+     * 查询多条数据, 每行直接转换为 type 类型的对象(不经过 Map)
+     * 1. type 为简单类型(String, Integer, Long, Date 等 java.* 类型): 取第一列
+     * 2. javabean: 列名匹配属性(忽略大小写和下划线, create_time 匹配 createTime). 优先用 setter 方法, 其次字段
+     * 每个(sql, type)的列和属性映射只在第一次查询时建立(MethodHandle), 之后直接使用
+     * @param sql sql 语句
+     * @param type 结果类型
+     * @param params 参数
+     * @return 结果对象列表
+     */
+    public <T> List<T> query(String sql, Class<T> type, Object...params) {
+        if (type == null) throw new IllegalArgumentException("Param type required");
+        return withReadConn(conn -> {
+            try {
+                return withStmt(conn, sql, pst -> {
+                    fillParam(pst, params);
+                    try (ResultSet rs = pst.executeQuery()) {
+                        final RowMapper<T> mapper = rowMapper(sql, type, labels(rs));
+                        final List<T> result = new ArrayList<>();
+                        while (rs.next()) result.add(mapper.map(rs));
+                        return result;
+                    }
+                });
+            } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+    }
+
+
+    /**
+     * 获取结果映射器: 按(sql, type)缓存. 列名变了(例: select * 表结构有变化)则重建
+     * @param sql sql 语句
+     * @param type 结果类型
+     * @param labels 结果集列名
+     * @return {@link RowMapper}
+     */
+    protected <T> RowMapper<T> rowMapper(String sql, Class<T> type, String[] labels) {
+        final String key = type.getName() + ":" + sql;
+        RowMapper<T> mapper = (RowMapper<T>) rowMappers.get(key);
+        if (mapper != null && Arrays.equals(mapper.labels, labels)) return mapper;
+        mapper = new RowMapper<>(type, labels);
+        if (rowMappers.size() >= 1000) rowMappers.clear(); // 防止动态sql无限增长
+        rowMappers.put(key, mapper);
+        return mapper;
+    }
+
+
+    /**
+     * 结果映射器缓存: 类型:sql -> {@link RowMapper}
+     */
+    protected final Map<String, RowMapper<?>> rowMappers = new ConcurrentHashMap<>();
+
+
+    /**
+     * 结果映射器: 把结果集的一行转换为一个对象 {@link #query(String, Class, Object...)}
+     */
+    protected static class RowMapper<T> {
+        protected final Class<T>       type;
+        protected final String[]       labels;
+        /**
+         * 对象构造器. null: 简单类型, 取第一列
+         */
+        protected final MethodHandle   constructor;
+        /**
+         * 有对应属性的列下标(从1开始)
+         */
+        protected final int[]          columns;
+        /**
+         * 列对应的属性设值函数: (Object, Object)void
+         */
+        protected final MethodHandle[] setters;
+        /**
+         * 列对应的属性类型
+         */
+        protected final Class<?>[]     types;
+
+        protected RowMapper(Class<T> type, String[] labels) {
+            this.type = type;
+            this.labels = labels;
+            if (type.isPrimitive() || type.getName().startsWith("java.")) {
+                constructor = null; columns = new int[0]; setters = new MethodHandle[0]; types = new Class<?>[0];
+                return;
+            }
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                Constructor<T> c = type.getDeclaredConstructor();
+                c.setAccessible(true);
+                constructor = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+            } catch (NoSuchMethodException | IllegalAccessException ex) {
+                throw new IllegalArgumentException("Type '" + type.getName() + "' requires a no-arg constructor", ex);
+            }
+            // 属性名(小写, 无下划线) -> [设值函数, 属性类型]
+            final Map<String, Object[]> props = new HashMap<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers()) || Modifier.isFinal(f.getModifiers())) continue;
+                    String name = f.getName().replace("_", "").toLowerCase();
+                    if (props.containsKey(name)) continue;
+                    try {
+                        f.setAccessible(true);
+                        props.put(name, new Object[]{lookup.unreflectSetter(f), f.getType()});
+                    } catch (RuntimeException | IllegalAccessException ex) { /* 不能访问的字段 */ }
+                }
+            }
+            for (Method m : type.getMethods()) { // setter 优先
+                if (Modifier.isStatic(m.getModifiers()) || m.getParameterCount() != 1 || m.getName().length() < 4 || !m.getName().startsWith("set")) continue;
+                try {
+                    m.setAccessible(true);
+                    props.put(m.getName().substring(3).replace("_", "").toLowerCase(), new Object[]{lookup.unreflect(m), m.getParameterTypes()[0]});
+                } catch (RuntimeException | IllegalAccessException ex) { /* 不能访问的方法 */ }
+            }
+            final List<Integer> cols = new ArrayList<>(labels.length);
+            final List<MethodHandle> setters = new ArrayList<>(labels.length);
+            final List<Class<?>> types = new ArrayList<>(labels.length);
+            for (int i = 0; i < labels.length; i++) {
+                Object[] prop = props.get(labels[i].replace("_", "").toLowerCase());
+                if (prop == null) continue;
+                cols.add(i + 1);
+                setters.add(((MethodHandle) prop[0]).asType(MethodType.methodType(void.class, Object.class, Object.class)));
+                types.add((Class<?>) prop[1]);
+            }
+            this.columns = cols.stream().mapToInt(Integer::intValue).toArray();
+            this.setters = setters.toArray(new MethodHandle[0]);
+            this.types = types.toArray(new Class<?>[0]);
+        }
+
+        /**
+         * 转换当前行
+         * @param rs {@link ResultSet}
+         * @return 对象
+         */
+        protected T map(ResultSet rs) throws SQLException {
+            if (constructor == null) return (T) convert(rs.getObject(1), type);
+            try {
+                final Object obj = (Object) constructor.invokeExact();
+                for (int i = 0; i < columns.length; i++) {
+                    Object v = convert(rs.getObject(columns[i]), types[i]);
+                    if (v == null && types[i].isPrimitive()) continue;
+                    setters[i].invokeExact(obj, v);
+                }
+                return (T) obj;
+            } catch (SQLException | RuntimeException ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+
+    /**
+     * 转换数据库的值为属性类型
+     * @param v 值
+     * @param type 属性类型
+     * @return 转换后的值
+     */
+    protected static Object convert(Object v, Class<?> type) {
+        if (v == null || type.isInstance(v)) return v;
+        if (v instanceof Timestamp) {
+            if (LocalDateTime.class.equals(type)) return ((Timestamp) v).toLocalDateTime();
+            if (LocalDate.class.equals(type)) return ((Timestamp) v).toLocalDateTime().toLocalDate();
+        }
+        if (v instanceof java.sql.Date && LocalDate.class.equals(type)) return ((java.sql.Date) v).toLocalDate();
+        if (v instanceof Number) {
+            final Object n = convertNumber((Number) v, type);
+            if (n != null) return n;
+        }
+        return Utils.to(v, type);
+    }
+
+
+    /**
+     * 数值按数值转换(不经过字符串): 例 DECIMAL(10,2) 的 5.00 转 Integer/int. 小数部分截断
+     * @param v 值
+     * @param type 属性类型
+     * @return 转换后的值. null: 不是数值类型
+     */
+    protected static Object convertNumber(Number v, Class<?> type) {
+        if (Integer.class.equals(type) || int.class.equals(type)) return v.intValue();
+        if (Long.class.equals(type) || long.class.equals(type)) return v.longValue();
+        if (Short.class.equals(type) || short.class.equals(type)) return v.shortValue();
+        if (Byte.class.equals(type) || byte.class.equals(type)) return v.byteValue();
+        if (Double.class.equals(type) || double.class.equals(type)) return v.doubleValue();
+        if (Float.class.equals(type) || float.class.equals(type)) return v.floatValue();
+        if (Boolean.class.equals(type) || boolean.class.equals(type)) return v.intValue() != 0;
+        if (BigDecimal.class.equals(type)) return v instanceof BigInteger ? new BigDecimal((BigInteger) v) : new BigDecimal(v.toString());
+        if (BigInteger.class.equals(type)) return v instanceof BigDecimal ? ((BigDecimal) v).toBigInteger() : BigInteger.valueOf(v.longValue());
+        return null;
+    }
+
+
+    /**
+     * 查询多条数据(紧凑结构): 所有行共用列名索引, 每行只存一个 Object[]
+     * 比 {@link #rows(String, Object...)} 省内存, 适合大结果集. 行的 {@link Map} 视图在访问时才创建
+     * @param sql sql 语句
+     * @param params 参数
+     * @return {@link Rows}
+     */
+    public Rows compactRows(String sql, Object...params) {
+        return withReadConn(conn -> {
+            try {
+                return withStmt(conn, sql, pst -> {
+                    fillParam(pst, params);
+                    try (ResultSet rs = pst.executeQuery()) {
+                        final Rows result = new Rows(labels(rs));
+                        final int count = result.labels.length;
+                        while (rs.next()) {
+                            Object[] values = new Object[count];
+                            for (int i = 0; i < count; i++) values[i] = rs.getObject(i + 1);
+                            result.data.add(values);
+                        }
+                        return result;
+                    }
+                });
+            } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            }
         });
     }
 
@@ -273,22 +940,25 @@ public class DB implements AutoCloseable {
      */
     public Map<String, Object> row(String sql, Object...params) {
         final Map<String, Object> result = new LinkedHashMap<>();
-        return withConn(conn -> {
-            try (PreparedStatement pst = conn.prepareStatement(sql)) {
-                fillParam(pst, params);
-                try (ResultSet rs = pst.executeQuery()) {
-                    if (rs.next()) {
-                        ResultSetMetaData metadata = rs.getMetaData();
-                        for (int i = 1; i <= metadata.getColumnCount(); i++) {
-                            result.put(metadata.getColumnLabel(i), rs.getObject(i));
+        return cached("row", sql, params, () -> withReadConn(conn -> {
+            try {
+                withStmt(conn, sql, pst -> {
+                    fillParam(pst, params);
+                    try (ResultSet rs = pst.executeQuery()) {
+                        if (rs.next()) {
+                            final String[] labels = labels(rs);
+                            for (int i = 0; i < labels.length; i++) {
+                                result.put(labels[i], rs.getObject(i + 1));
+                            }
                         }
                     }
-                }
+                    return result;
+                });
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
             return result;
-        });
+        }), r -> new LinkedHashMap<>(r));
     }
 
 
@@ -302,39 +972,431 @@ public class DB implements AutoCloseable {
      * @return 单个值
      */
     public  <T> T single(String sql, Class<T> retType, Object...params) {
-        return (T) withConn(conn -> {
-            try (PreparedStatement pst = conn.prepareStatement(sql)) {
-                fillParam(pst, params);
-                try (ResultSet rs = pst.executeQuery()) {
-                    if (rs.next()) {
-                        if (String.class.equals(retType)) return rs.getString(1);
-                        if (Integer.class.equals(retType)) return rs.getInt(1);
-                        if (Long.class.equals(retType)) return rs.getLong(1);
-                        if (Double.class.equals(retType)) return rs.getDouble(1);
-                        if (BigDecimal.class.equals(retType)) return rs.getBigDecimal(1);
-                        if (Boolean.class.equals(retType)) return rs.getBoolean(1);
-                        if (Date.class.equals(retType)) return rs.getDate(1);
-                        return rs.getObject(1);
+        return (T) cached("single:" + retType.getName(), sql, params, () -> withReadConn(conn -> {
+            try {
+                return withStmt(conn, sql, pst -> {
+                    fillParam(pst, params);
+                    try (ResultSet rs = pst.executeQuery()) {
+                        if (rs.next()) {
+                            if (String.class.equals(retType)) return rs.getString(1);
+                            if (Integer.class.equals(retType)) return rs.getInt(1);
+                            if (Long.class.equals(retType)) return rs.getLong(1);
+                            if (Double.class.equals(retType)) return rs.getDouble(1);
+                            if (BigDecimal.class.equals(retType)) return rs.getBigDecimal(1);
+                            if (Boolean.class.equals(retType)) return rs.getBoolean(1);
+                            if (Date.class.equals(retType)) return rs.getDate(1);
+                            return rs.getObject(1);
+                        }
                     }
+                    return null;
+                }, v -> v == null ? 0 : 1);
+            } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            }
+        }), v -> v);
+    }
+
+
+    /**
+     * 流式查询: 逐行从数据库读取, 不受 maxRows 限制, 适合大量数据导出
+     * 1. 每次从数据库取 fetchSize 条 {@link #setFetchSize(int)}
+     * 2. MySQL(没有开启 useCursorFetch) 使用流模式 fetchSize=Integer.MIN_VALUE
+     * 3. PostgreSQL 需在非自动提交下才能用游标, 非事务时临时关闭自动提交
+     * 4. 非事务时从 {@link #readConnection()} 取连接(读写分离时读从库), 事务中用事务连接
+     * NOTE: 用完需关闭(读到最后一行时也会自动关闭), 关闭时释放连接
+     * <pre>
+     * try (Stream&lt;Map&lt;String, Object&gt;&gt; rows = db.stream("select * from test where age &gt; ?", 10)) {
+     *     rows.forEach(row -&gt; ...);
+     * }
+     * </pre>
+     * @param sql sql 语句
+     * @param params 参数
+     * @return 数据流
+     */
+    public Stream<Map<String, Object>> stream(String sql, Object...params) {
+        init();
+        final Cursor cursor = new Cursor(txConn.get());
+        try {
+            cursor.open(sql, params);
+        } catch (Throwable ex) {
+            cursor.close();
+            throw ex instanceof RuntimeException ? (RuntimeException) ex : new RuntimeException(ex);
+        }
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
+    }
+
+
+    /**
+     * 流式查询游标 {@link #stream(String, Object...)}
+     */
+    protected class Cursor extends Spliterators.AbstractSpliterator<Map<String, Object>> {
+        /**
+         * 事务连接. null: 非事务, 游标自己获取和释放连接
+         */
+        protected final Connection        tx;
+        protected       Connection        conn;
+        protected       PreparedStatement pst;
+        protected       ResultSet         rs;
+        /**
+         * 列名
+         */
+        protected       String[]          labels;
+        /**
+         * 打开游标前的自动提交状态. null: 没有改变
+         */
+        protected       Boolean           autoCommit;
+        protected       boolean           closed;
+        /**
+         * sql 监控 {@link #setMonitor(Duration)}. null: 不记录
+         */
+        protected final SqlMonitor        monitor;
+        /**
+         * 执行的 sql. null: 没有执行, 不记录
+         */
+        protected       String            sql;
+        /**
+         * 获取连接耗时(纳秒). null: 事务连接
+         */
+        protected       Long              acquireNanos;
+        /**
+         * 执行和读取结果集的累计耗时(纳秒), 不包括消费数据的时间
+         */
+        protected       long              execNanos;
+        protected       long              rows;
+        protected       boolean           ok = true;
+
+        protected Cursor(Connection tx) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.tx = tx;
+            this.monitor = DB.this.monitor;
+        }
+
+        protected void open(String sql, Object...params) throws SQLException {
+            if (tx == null) {
+                final long begin = System.nanoTime();
+                conn = readConnection();
+                if (monitor != null) {
+                    acquireNanos = System.nanoTime() - begin;
+                    monitor.acquired(acquireNanos);
+                    monitor.released(); // 获取连接耗时在关闭时和 sql 一起记录, 不留给当前线程的其它 sql
+                }
+            } else conn = tx;
+            final DatabaseMetaData dbMeta = conn.getMetaData();
+            final String driver = String.valueOf(dbMeta.getDriverName()).toLowerCase();
+            pst = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            fillParam(pst, params);
+            pst.setMaxRows(0);
+            if (driver.contains("mysql") && !String.valueOf(dbMeta.getURL()).contains("useCursorFetch=true")) {
+                pst.setFetchSize(Integer.MIN_VALUE);
+            } else pst.setFetchSize(fetchSize);
+            if (tx == null && driver.contains("postgresql") && conn.getAutoCommit()) {
+                autoCommit = true; conn.setAutoCommit(false);
+            }
+            this.sql = sql;
+            final long begin = System.nanoTime();
+            try {
+                rs = pst.executeQuery();
+            } catch (SQLException ex) {
+                ok = false; throw ex;
+            } finally {
+                execNanos += System.nanoTime() - begin;
+            }
+            labels = labels(rs);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map<String, Object>> action) {
+            if (closed) return false;
+            final Map<String, Object> row;
+            final long begin = System.nanoTime();
+            try {
+                if (!rs.next()) {
+                    execNanos += System.nanoTime() - begin;
+                    close(); return false;
                 }
+                row = new LinkedHashMap<>(labels.length, 1);
+                for (int i = 0; i < labels.length; i++) row.put(labels[i], rs.getObject(i + 1));
+                rows++;
+                execNanos += System.nanoTime() - begin;
             } catch (SQLException ex) {
+                execNanos += System.nanoTime() - begin;
+                ok = false;
+                close();
                 throw new RuntimeException(ex);
             }
-            return null;
-        });
+            action.accept(row);
+            return true;
+        }
+
+        /**
+         * 关闭游标, 释放连接(非事务)
+         * 记录到 sql 监控: 获取连接耗时, 执行和读取耗时, 读取的行数
+         */
+        protected void close() {
+            if (closed) return;
+            closed = true;
+            if (monitor != null && sql != null) monitor.record(sql, acquireNanos, execNanos, rows, ok);
+            try { if (rs != null) rs.close(); } catch (SQLException ex) { /* 忽略 */ }
+            try { if (pst != null) pst.close(); } catch (SQLException ex) { /* 忽略 */ }
+            if (tx != null || conn == null) return;
+            try {
+                if (autoCommit != null) {
+                    conn.commit(); conn.setAutoCommit(autoCommit);
+                }
+            } catch (SQLException ex) { /* 忽略 */ }
+            try { conn.close(); } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
     }
 
 
     protected void fillParam(PreparedStatement pst, Object...params) throws SQLException {
-        ParameterMetaData metaData = pst.getParameterMetaData();
-        if (metaData != null && params != null) {
-            for (int i = 0; i < params.length; i++) {
-                Object v = params[i];
-                if (v instanceof Date) v = new java.sql.Date(((Date) v).getTime());
-                pst.setObject(i + 1, v);
+        setParams(pst, params);
+        pst.setMaxRows(maxRows);
+    }
+
+
+    /**
+     * 设置语句参数
+     * @param pst {@link PreparedStatement}
+     * @param params 参数
+     */
+    protected void setParams(PreparedStatement pst, Object...params) throws SQLException {
+        if (params == null) return;
+        ParameterMetaData metaData = null;
+        boolean metaFetched = false;
+        for (int i = 0; i < params.length; i++) {
+            Object v = params[i];
+            if (v == null) { // 只有 null 值需要参数类型(有些驱动不支持 setObject(null)). 获取参数元数据可能要访问一次数据库
+                if (!metaFetched) {
+                    metaFetched = true;
+                    try { metaData = pst.getParameterMetaData(); } catch (SQLException ex) { /* 驱动不支持 */ }
+                }
+                Integer type = null;
+                try { if (metaData != null) type = metaData.getParameterType(i + 1); } catch (SQLException ex) { /* 驱动不支持 */ }
+                if (type == null) pst.setObject(i + 1, null);
+                else pst.setNull(i + 1, type);
+                continue;
             }
+            if (v instanceof Date) v = new java.sql.Date(((Date) v).getTime());
+            pst.setObject(i + 1, v);
+        }
+    }
+
+
+    /**
+     * 结果集的列名(每个结果集只取一次)
+     * @param rs {@link ResultSet}
+     * @return 列名
+     */
+    protected static String[] labels(ResultSet rs) throws SQLException {
+        final ResultSetMetaData metadata = rs.getMetaData();
+        final String[] labels = new String[metadata.getColumnCount()];
+        for (int i = 0; i < labels.length; i++) labels[i] = metadata.getColumnLabel(i + 1);
+        return labels;
+    }
+
+
+    /**
+     * 用语句执行函数. 语句用完放回缓存 {@link #setStmtCacheSize(int)}
+     * @param conn 连接
+     * @param sql sql 语句
+     * @param fn 语句执行函数
+     * @return 函数返回值
+     */
+    protected <T> T withStmt(Connection conn, String sql, StmtFn<T> fn) throws SQLException {
+        return withStmt(conn, sql, fn, DB::countRows);
+    }
+
+
+    /**
+     * 执行语句
+     * @param rowCounter 从执行结果计算返回/影响行数 {@link SqlMonitor}
+     */
+    protected <T> T withStmt(Connection conn, String sql, StmtFn<T> fn, ToLongFunction<? super T> rowCounter) throws SQLException {
+        final PreparedStatement pst = prepare(conn, sql);
+        boolean ok = false;
+        try {
+            T result = timed(sql, pst, fn, rowCounter);
+            ok = true;
+            return result;
+        } finally {
+            release(conn, sql, pst, ok);
+        }
+    }
+
+
+    /**
+     * 执行语句并记录到 sql 监控 {@link #setMonitor(Duration)}
+     * @param rowCounter 从执行结果计算返回/影响行数
+     */
+    protected <T> T timed(String sql, PreparedStatement pst, StmtFn<T> fn, ToLongFunction<? super T> rowCounter) throws SQLException {
+        final SqlMonitor m = monitor;
+        if (m == null) return fn.apply(pst);
+        final long begin = System.nanoTime();
+        boolean ok = false;
+        T result = null;
+        try {
+            result = fn.apply(pst);
+            ok = true;
+            return result;
+        } finally {
+            m.record(sql, System.nanoTime() - begin, ok ? rowCounter.applyAsLong(result) : 0, ok);
+        }
+    }
+
+
+    /**
+     * 执行结果的行数: 集合大小, 更新条数
+     */
+    protected static long countRows(Object result) {
+        if (result == null) return 0;
+        if (result instanceof Collection) return ((Collection<?>) result).size();
+        if (result instanceof Map) return ((Map<?, ?>) result).isEmpty() ? 0 : 1;
+        if (result instanceof Number) return ((Number) result).longValue();
+        if (result instanceof int[]) {
+            long count = 0;
+            for (int i : (int[]) result) if (i > 0) count += i;
+            return count;
+        }
+        return 1;
+    }
+
+
+    /**
+     * 语句执行函数
+     */
+    @FunctionalInterface
+    protected interface StmtFn<T> {
+        T apply(PreparedStatement pst) throws SQLException;
+    }
+
+
+    /**
+     * 获取语句: 优先从连接的语句缓存中取
+     * @param conn 连接
+     * @param sql sql 语句
+     * @return {@link PreparedStatement}
+     */
+    protected PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        if (stmtCacheSize < 1) return conn.prepareStatement(sql);
+        final PreparedStatement pst = stmtCache(conn).take(sql, conn);
+        if (pst != null) {
+            pst.clearParameters();
+            return pst;
+        }
+        return conn.prepareStatement(sql);
+    }
+
+
+    /**
+     * 释放语句: 放回连接的语句缓存, 或者关闭
+     * @param conn 连接
+     * @param sql sql 语句
+     * @param pst 语句
+     * @param ok 是否执行成功. 失败的语句不放回缓存
+     */
+    protected void release(Connection conn, String sql, PreparedStatement pst, boolean ok) {
+        if (stmtCacheSize < 1 || !ok) { close(pst); return; }
+        try {
+            stmtCache(conn).offer(sql, pst);
+        } catch (SQLException ex) {
+            close(pst);
+        }
+        if ((stmtReleases.incrementAndGet() & 1023) == 0) sweepStmtCaches();
+    }
+
+
+    /**
+     * 清除已关闭(被连接池回收)的物理连接的语句缓存
+     * 只在删除时持有全局锁, 检查连接状态不阻塞其它线程取缓存
+     */
+    protected void sweepStmtCaches() {
+        final List<StmtCache> caches;
+        synchronized (stmtCaches) { caches = new ArrayList<>(stmtCaches.values()); }
+        for (StmtCache cache : caches) {
+            boolean closed;
+            try { closed = cache.conn.isClosed(); } catch (SQLException ex) { closed = true; }
+            if (!closed) continue;
+            synchronized (stmtCaches) { stmtCaches.remove(cache.conn, cache); }
+            cache.clear();
+        }
+    }
+
+
+    protected static void close(Statement st) {
+        try {
+            if (st != null) st.close();
+        } catch (SQLException ex) { /* 忽略 */ }
+    }
+
+
+    /**
+     * 连接的语句缓存. 已关闭连接的缓存定期清除 {@link #sweepStmtCaches()}
+     * @param conn 连接(连接池包装的连接用其物理连接作为键)
+     * @return {@link StmtCache}
+     */
+    protected StmtCache stmtCache(Connection conn) throws SQLException {
+        final Connection physical = conn.isWrapperFor(Connection.class) ? conn.unwrap(Connection.class) : conn;
+        synchronized (stmtCaches) {
+            StmtCache cache = stmtCaches.get(physical);
+            if (cache == null) {
+                cache = new StmtCache(physical, stmtCacheSize);
+                stmtCaches.put(physical, cache);
+            }
+            return cache;
+        }
+    }
+
+
+    /**
+     * 一个连接的语句缓存: sql -> 语句. 按最近使用淘汰
+     * 使用中的语句从缓存中取出, 用完再放回(同一连接同一 sql 嵌套执行时不冲突)
+     */
+    protected static class StmtCache extends LinkedHashMap<String, PreparedStatement> {
+        protected final Connection conn;
+        protected final int        capacity;
+
+        protected StmtCache(Connection conn, int capacity) {
+            super(16, 0.75f, true);
+            this.conn = conn;
+            this.capacity = capacity;
+        }
+
+        /**
+         * 取出语句
+         * @param sql sql 语句
+         * @param owner 当前连接. 语句属于其它(已归还的)包装连接时, 不能再用
+         * @return null: 没有可用的语句
+         */
+        protected synchronized PreparedStatement take(String sql, Connection owner) throws SQLException {
+            final PreparedStatement pst = remove(sql);
+            if (pst == null || pst.isClosed()) return null;
+            final Connection c = pst.getConnection();
+            if (c != owner && c != conn) {
+                DB.close(pst); return null;
+            }
+            return pst;
+        }
+
+        protected synchronized void offer(String sql, PreparedStatement pst) {
+            PreparedStatement old = put(sql, pst);
+            if (old != null && old != pst) DB.close(old);
+        }
+
+        @Override
+        public synchronized void clear() {
+            values().forEach(DB::close);
+            super.clear();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= capacity) return false;
+            DB.close(eldest.getValue());
+            return true;
         }
-        pst.setMaxRows(maxRows);
     }
 
 
@@ -352,6 +1414,12 @@ public class DB implements AutoCloseable {
 
     @Override
     public void close() throws Exception {
+        if (asyncExec != null) asyncExec.shutdown();
+        if (monitor != null) setMonitor(null);
+        synchronized (stmtCaches) {
+            stmtCaches.values().forEach(StmtCache::clear);
+            stmtCaches.clear();
+        }
         try {
             dataSource.getClass().getMethod("close").invoke(dataSource);
         } catch (Exception e) {}
@@ -441,7 +1509,154 @@ public class DB implements AutoCloseable {
         catch(ClassNotFoundException ex) {}
         catch(Exception ex) { throw new RuntimeException(ex); }
 
-        if (ds == null) throw new RuntimeException("No found DataSource impl class");
-        return ds;
+        if (ds != null) return ds;
+
+        // 内置连接池
+        return new DBPool(dsAttr);
+    }
+
+
+    /**
+     * 紧凑结构的查询结果 {@link #compactRows(String, Object...)}
+     * 列名索引为所有行共用, 每行数据为一个 Object[]
+     * 作为 {@link List} 使用时, 每行返回一个 {@link Row} 视图(和 {@link #rows(String, Object...)} 的 Map 一样的键值, 重复列名取最后一列的值)
+     */
+    public static class Rows extends AbstractList<Map<String, Object>> implements RandomAccess {
+        /**
+         * 结果集的列名(可能重复)
+         */
+        protected final String[]             labels;
+        /**
+         * 不重复的列名(按第一次出现的顺序)
+         */
+        protected final String[]             keys;
+        /**
+         * {@link #keys} 对应的列下标(重复列名取最后一列)
+         */
+        protected final int[]                slots;
+        /**
+         * 列名 -> 列下标
+         */
+        protected final Map<String, Integer> index;
+        /**
+         * 每行数据
+         */
+        protected final List<Object[]>       data = new ArrayList<>();
+
+        protected Rows(String[] labels) {
+            this.labels = labels;
+            this.index = new HashMap<>(labels.length * 2);
+            final List<String> keys = new ArrayList<>(labels.length);
+            for (int i = 0; i < labels.length; i++) {
+                if (index.put(labels[i], i) == null) keys.add(labels[i]);
+            }
+            this.keys = keys.toArray(new String[0]);
+            this.slots = new int[this.keys.length];
+            for (int i = 0; i < slots.length; i++) slots[i] = index.get(this.keys[i]);
+        }
+
+        /**
+         * 列名(不重复)
+         */
+        public List<String> columns() { return Collections.unmodifiableList(Arrays.asList(keys)); }
+
+        /**
+         * 列下标
+         * @param label 列名
+         * @return 列下标. -1: 不存在
+         */
+        public int columnIndex(String label) {
+            Integer i = index.get(label);
+            return i == null ? -1 : i;
+        }
+
+        /**
+         * 取值
+         * @param row 行下标
+         * @param column 列下标 {@link #columnIndex(String)}
+         * @return 值
+         */
+        public Object value(int row, int column) { return data.get(row)[column]; }
+
+        /**
+         * 取值
+         * @param row 行下标
+         * @param label 列名
+         * @return 值. 列不存在: null
+         */
+        public Object value(int row, String label) {
+            Integer i = index.get(label);
+            return i == null ? null : data.get(row)[i];
+        }
+
+        @Override
+        public Map<String, Object> get(int row) { return new Row(this, data.get(row)); }
+
+        @Override
+        public int size() { return data.size(); }
+    }
+
+
+    /**
+     * 一行数据的 {@link Map} 视图 {@link Rows}
+     * 可以修改已有列的值, 不能增删列
+     */
+    public static class Row extends AbstractMap<String, Object> {
+        protected final Rows     rows;
+        protected final Object[] values;
+
+        protected Row(Rows rows, Object[] values) {
+            this.rows = rows;
+            this.values = values;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Integer i = rows.index.get(key);
+            return i == null ? null : values[i];
+        }
+
+        @Override
+        public boolean containsKey(Object key) { return rows.index.containsKey(key); }
+
+        @Override
+        public Object put(String key, Object value) {
+            Integer i = rows.index.get(key);
+            if (i == null) throw new UnsupportedOperationException("Not exist column: " + key);
+            Object old = values[i];
+            values[i] = value;
+            return old;
+        }
+
+        @Override
+        public int size() { return rows.keys.length; }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        int cursor = 0;
+                        @Override
+                        public boolean hasNext() { return cursor < rows.keys.length; }
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (cursor >= rows.keys.length) throw new NoSuchElementException();
+                            final int k = cursor++;
+                            return new SimpleEntry<String, Object>(rows.keys[k], values[rows.slots[k]]) {
+                                @Override
+                                public Object setValue(Object value) {
+                                    values[rows.slots[k]] = value;
+                                    return super.setValue(value);
+                                }
+                            };
+                        }
+                    };
+                }
+                @Override
+                public int size() { return rows.keys.length; }
+            };
+        }
     }
 }
@@ -0,0 +1,429 @@
+package cn.xnatural.app.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内置的简单 jdbc 连接池(没有 druid, Hikari, dbcp2 时 {@link DB#createDataSource(Map)} 使用)
+ * 1. 空闲连接放在无锁队列 {@link ConcurrentLinkedDeque} 中(后进先出), 借出的连接数由 {@link Semaphore} 限制
+ * 2. 借出时: 超过最大存活时间的连接关闭; 空闲超过 validationInterval 的连接先检查是否可用 {@link Connection#isValid(int)}
+ * 3. 后台定时: 关闭空闲超过 idleTimeout(保留 minIdle 个) 和 超过最大存活时间的连接, 补足 minIdle 个连接
+ * 4. 连接, 语句, 结果集都是代理: 出现连接异常(SQLState 08 开头)的连接归还时关闭; 借出期间有其它异常的, 归还时先检查是否可用
+ * 属性(兼容 druid/Hikari/dbcp2 的属性名):
+ *  url/jdbcUrl, username/user, password, driverClassName,
+ *  minIdle/minimumIdle, maxActive/maximumPoolSize/maxTotal,
+ *  maxWait/connectionTimeout/maxWaitMillis(毫秒), maxLifetime(毫秒, <= 0: 不限制), idleTimeout/minEvictableIdleTimeMillis(毫秒, <= 0: 不关闭),
+ *  validationInterval(毫秒), validationTimeout(毫秒), timeBetweenEvictionRunsMillis(毫秒)
+ */
+public class DBPool implements DataSource, AutoCloseable {
+    protected static final Logger                   log     = LoggerFactory.getLogger(DBPool.class);
+    protected static final AtomicInteger            count   = new AtomicInteger();
+    /**
+     * 名字标识
+     */
+    public final String name = "DBPool-" + count.getAndIncrement();
+    protected final String                          jdbcUrl;
+    protected final Properties                      props   = new Properties();
+    protected final int                             minIdle;
+    protected final int                             maxActive;
+    /**
+     * 获取连接的最长等待时间(毫秒)
+     */
+    protected final long                            maxWait;
+    /**
+     * 连接的最大存活时间(毫秒)
+     */
+    protected final long                            maxLifetime;
+    /**
+     * 空闲多久的连接被关闭(毫秒)
+     */
+    protected final long                            idleTimeout;
+    /**
+     * 空闲多久的连接在借出时检查是否可用(毫秒)
+     */
+    protected final long                            validationInterval;
+    /**
+     * 检查连接是否可用的超时时间(毫秒)
+     */
+    protected final long                            validationTimeout;
+    /**
+     * 空闲连接: 头部为最近归还的
+     */
+    protected final ConcurrentLinkedDeque<PooledConn> idle  = new ConcurrentLinkedDeque<>();
+    /**
+     * 可借出的连接数
+     */
+    protected final Semaphore                       permits;
+    /**
+     * 当前的物理连接数
+     */
+    protected final AtomicInteger                   total   = new AtomicInteger();
+    protected final ScheduledExecutorService        evictor;
+    protected volatile boolean                      closed;
+
+
+    /**
+     * 创建一个 {@link DBPool}
+     * @param attr 属性集
+     */
+    public DBPool(Map<String, Object> attr) {
+        if (attr == null) throw new IllegalArgumentException("Param attr required");
+        this.jdbcUrl = (String) first(attr, "url", "jdbcUrl");
+        if (jdbcUrl == null || jdbcUrl.isEmpty()) throw new IllegalArgumentException("Param url/jdbcUrl required");
+        final Object user = first(attr, "username", "user");
+        if (user != null) props.put("user", user.toString());
+        final Object password = first(attr, "password");
+        if (password != null) props.put("password", password.toString());
+        final Object driver = first(attr, "driverClassName");
+        if (driver != null) {
+            try {
+                Class.forName(driver.toString());
+            } catch (ClassNotFoundException ex) {
+                throw new IllegalArgumentException("Driver class not found: " + driver, ex);
+            }
+        }
+        this.maxActive = (int) number(attr, 8, "maxActive", "maximumPoolSize", "maxTotal");
+        this.minIdle = (int) Math.min(number(attr, 0, "minIdle", "minimumIdle"), maxActive);
+        this.maxWait = number(attr, 30_000, "maxWait", "connectionTimeout", "maxWaitMillis");
+        final long lifetime = number(attr, 30 * 60_000, "maxLifetime");
+        this.maxLifetime = lifetime > 0 ? lifetime : Long.MAX_VALUE; // <= 0: 不限制
+        final long idleTime = number(attr, 10 * 60_000, "idleTimeout", "minEvictableIdleTimeMillis");
+        this.idleTimeout = idleTime > 0 ? idleTime : Long.MAX_VALUE;
+        this.validationInterval = number(attr, 500, "validationInterval");
+        this.validationTimeout = number(attr, 5_000, "validationTimeout");
+        if (maxActive < 1) throw new IllegalArgumentException("Param maxActive must > 0");
+        if (minIdle < 0) throw new IllegalArgumentException("Param minIdle must >= 0");
+        this.permits = new Semaphore(maxActive, false);
+        final long interval = number(attr, 30_000, "timeBetweenEvictionRunsMillis");
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        evictor.scheduleWithFixedDelay(this::evict, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Pool closed: " + name);
+        try {
+            if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Get connection timeout(" + maxWait + "ms). " + this, "08001");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Get connection interrupted. " + name, ex);
+        }
+        try {
+            for (PooledConn pc = idle.pollFirst(); pc != null; pc = idle.pollFirst()) {
+                if (alive(pc)) return pc.borrow();
+                discard(pc);
+            }
+            return create().borrow();
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("DBPool only supports the configured user");
+    }
+
+
+    /**
+     * 借出前检查: 存活时间, 空闲较久的检查是否可用
+     */
+    protected boolean alive(PooledConn pc) {
+        final long now = System.currentTimeMillis();
+        if (now - pc.createdAt >= maxLifetime) return false;
+        if (now - pc.lastUsed < validationInterval) return true;
+        return valid(pc);
+    }
+
+
+    /**
+     * 检查物理连接是否可用 {@link Connection#isValid(int)}
+     */
+    protected boolean valid(PooledConn pc) {
+        try {
+            return pc.raw.isValid((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(validationTimeout)));
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+
+    /**
+     * 创建一个物理连接
+     */
+    protected PooledConn create() throws SQLException {
+        total.incrementAndGet();
+        try {
+            return new PooledConn(DriverManager.getConnection(jdbcUrl, props));
+        } catch (SQLException | RuntimeException ex) {
+            total.decrementAndGet();
+            throw ex;
+        }
+    }
+
+
+    /**
+     * 关闭一个物理连接
+     */
+    protected void discard(PooledConn pc) {
+        total.decrementAndGet();
+        try {
+            pc.raw.close();
+        } catch (SQLException ex) {
+            log.warn(name + " close connection error. " + ex);
+        }
+    }
+
+
+    /**
+     * 归还连接: 回滚未提交的事务, 放回空闲队列
+     * 借出期间有异常的连接先检查是否可用
+     */
+    protected void giveBack(PooledConn pc) {
+        try {
+            boolean ok = !pc.broken && !closed && System.currentTimeMillis() - pc.createdAt < maxLifetime;
+            if (ok && pc.failed) ok = valid(pc);
+            pc.failed = false;
+            if (ok) {
+                try {
+                    if (!pc.raw.getAutoCommit()) {
+                        pc.raw.rollback();
+                        pc.raw.setAutoCommit(true);
+                    }
+                    pc.raw.clearWarnings();
+                } catch (SQLException ex) {
+                    ok = false;
+                }
+            }
+            if (ok) {
+                pc.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pc);
+            } else discard(pc);
+        } finally {
+            permits.release();
+        }
+    }
+
+
+    /**
+     * 关闭空闲太久和超过最大存活时间的连接, 补足 minIdle 个连接
+     */
+    protected void evict() {
+        try {
+            final long now = System.currentTimeMillis();
+            for (PooledConn pc : idle) {
+                final boolean expired = now - pc.createdAt >= maxLifetime;
+                final boolean idleTooLong = now - pc.lastUsed >= idleTimeout && total.get() > minIdle;
+                if ((expired || idleTooLong) && idle.remove(pc)) discard(pc);
+            }
+            while (!closed && total.get() < minIdle) {
+                idle.offerLast(create());
+            }
+        } catch (Throwable ex) {
+            log.warn(name + " evict error. " + ex);
+        }
+    }
+
+
+    /**
+     * 借出的连接数
+     */
+    public int getActive() { return maxActive - permits.availablePermits(); }
+
+    /**
+     * 空闲的连接数
+     */
+    public int getIdle() { return idle.size(); }
+
+    /**
+     * 物理连接数
+     */
+    public int getTotal() { return total.get(); }
+
+    /**
+     * 最大连接数
+     */
+    public int getMaxActive() { return maxActive; }
+
+    public String getJdbcUrl() { return jdbcUrl; }
+
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        evictor.shutdownNow();
+        for (PooledConn pc = idle.pollFirst(); pc != null; pc = idle.pollFirst()) discard(pc);
+    }
+
+
+    @Override
+    public PrintWriter getLogWriter() { return null; }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {}
+
+    @Override
+    public void setLoginTimeout(int seconds) {}
+
+    @Override
+    public int getLoginTimeout() { return 0; }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return (T) this;
+        throw new SQLException(name + " is not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) { return iface.isInstance(this); }
+
+
+    @Override
+    public String toString() {
+        return "DBPool{name: " + name + ", url: " + jdbcUrl + ", active: " + getActive() + ", idle: " + getIdle() + ", total: " + getTotal() + "}";
+    }
+
+
+    protected static Object first(Map<String, Object> attr, String... keys) {
+        for (String key : keys) {
+            Object v = attr.get(key);
+            if (v != null && !v.toString().isEmpty()) return v;
+        }
+        return null;
+    }
+
+
+    protected static long number(Map<String, Object> attr, long defaultValue, String... keys) {
+        final Object v = first(attr, keys);
+        if (v == null) return defaultValue;
+        if (v instanceof Number) return ((Number) v).longValue();
+        try {
+            return Long.parseLong(v.toString().trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Param " + String.join("/", keys) + " must be a number: " + v);
+        }
+    }
+
+
+    /**
+     * 池中的物理连接
+     */
+    protected class PooledConn {
+        protected final Connection  raw;
+        protected final long        createdAt = System.currentTimeMillis();
+        protected volatile long     lastUsed  = createdAt;
+        /**
+         * 发生了连接异常(SQLState 08 开头), 归还时关闭
+         */
+        protected volatile boolean  broken;
+        /**
+         * 借出期间有方法抛出了 {@link SQLException}, 归还时先检查是否可用
+         */
+        protected volatile boolean  failed;
+        /**
+         * 当前(最近一次)借出的代理连接: 语句的 getConnection 返回它, 不暴露物理连接
+         * 语句属于物理连接, 可以跨借出重用({@link DB} 的语句缓存)
+         */
+        protected volatile Connection handle;
+
+        protected PooledConn(Connection raw) { this.raw = raw; }
+
+        /**
+         * 借出: 返回一个代理连接, 关闭代理连接即归还
+         */
+        protected Connection borrow() {
+            final AtomicBoolean returned = new AtomicBoolean(false);
+            final Connection conn = (Connection) Proxy.newProxyInstance(DBPool.class.getClassLoader(), new Class[]{Connection.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "close":
+                        if (returned.compareAndSet(false, true)) giveBack(this);
+                        return null;
+                    case "isClosed": if (returned.get()) return true; break;
+                    case "unwrap": if (((Class<?>) args[0]).isInstance(raw)) return raw; break;
+                    case "isWrapperFor": if (((Class<?>) args[0]).isInstance(raw)) return true; break;
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    case "toString": return name + "@" + Integer.toHexString(System.identityHashCode(proxy)) + (returned.get() ? "(closed)" : "");
+                    default:
+                }
+                if (returned.get()) throw new SQLException("Connection closed");
+                return invoke(raw, proxy, method, args);
+            });
+            handle = conn;
+            return conn;
+        }
+
+        /**
+         * 调用被代理的对象: 抛出的 {@link SQLException} 标记连接, 返回的语句/结果集/元数据也代理
+         * @param proxy 代理对象
+         */
+        protected Object invoke(Object target, Object proxy, Method method, Object[] args) throws Throwable {
+            final Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException ex) {
+                final Throwable cause = ex.getCause();
+                if (cause instanceof SQLException) {
+                    failed = true;
+                    final String state = ((SQLException) cause).getSQLState();
+                    if (state != null && state.startsWith("08")) broken = true;
+                }
+                throw cause;
+            }
+            if (result == null) return null;
+            final Class<?> type = method.getReturnType();
+            if (type == Statement.class || type == PreparedStatement.class || type == CallableStatement.class
+                    || type == ResultSet.class || type == DatabaseMetaData.class) {
+                return wrap(result, type, proxy instanceof Statement ? proxy : null);
+            }
+            return result;
+        }
+
+        /**
+         * 代理连接创建的 语句/结果集/元数据
+         * @param statement 结果集所属的代理语句 {@link ResultSet#getStatement()}
+         */
+        protected Object wrap(Object target, Class<?> type, Object statement) {
+            return Proxy.newProxyInstance(DBPool.class.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getConnection": if (args == null) return handle; break;
+                    case "getStatement": if (args == null) return statement; break;
+                    case "unwrap": if (((Class<?>) args[0]).isInstance(target)) return target; break;
+                    case "isWrapperFor": if (((Class<?>) args[0]).isInstance(target)) return true; break;
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    case "toString": return target.toString();
+                    default:
+                }
+                return invoke(target, proxy, method, args);
+            });
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package cn.xnatural.app.util;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link DB} 查询结果缓存 {@link DB#setQueryCache(int, Duration)}
+ * 1. 以 (sql, 参数) 为键, 过期时间 ttl, 最多缓存 maxSize 条(按最近使用淘汰)
+ * 2. 每条缓存以 sql 中的表名为标签. 更新某个表时({@link DB#execute} 等)删除该表的所有缓存
+ *    解析不全表名的查询(例: from 列表中有子查询)不缓存
+ * 3. 同一个键同时只有一个查询在执行, 其它线程等待共用结果
+ */
+public class QueryCache {
+    /**
+     * 表名(可带库名, 可加引号)
+     */
+    protected static final String  NAME       = "((?:[`\"\\[]?[\\w$]+[`\"\\]]?\\.)*[`\"\\[]?[\\w$]+)";
+    /**
+     * sql 中的表名: from/join/into/update 之后的标识符
+     */
+    protected static final Pattern TABLE      = Pattern.compile("\\b(from|join|into|update)\\s+" + NAME, Pattern.CASE_INSENSITIVE);
+    /**
+     * from/update 列表中逗号之后的表名. ( 为子查询
+     */
+    protected static final Pattern NEXT_TABLE = Pattern.compile("\\s*(?:(\\()|" + NAME + ")");
+    /**
+     * from/update 列表的结束
+     */
+    protected static final Pattern LIST_END   = Pattern.compile("(?:where|group|order|having|limit|union|except|intersect|window|offset|fetch|for|set)\\b", Pattern.CASE_INSENSITIVE);
+    /**
+     * from 之后是子查询
+     */
+    protected static final Pattern DERIVED    = Pattern.compile("\\bfrom\\s*\\(", Pattern.CASE_INSENSITIVE);
+    protected final int                                   maxSize;
+    protected final long                                  ttl;
+    /**
+     * 缓存: 按访问顺序
+     */
+    protected final LinkedHashMap<Key, Entry>             entries;
+    /**
+     * 表名 -> 键
+     */
+    protected final Map<String, Set<Key>>                 tags    = new HashMap<>();
+    /**
+     * 正在执行的查询
+     */
+    protected final Map<Key, CompletableFuture<Object>>   loading = new ConcurrentHashMap<>();
+    /**
+     * 失效次数: 查询期间有失效时, 不缓存查询结果(可能是旧数据)
+     */
+    protected final AtomicLong                            epoch   = new AtomicLong();
+    protected final AtomicLong                            hits    = new AtomicLong();
+    protected final AtomicLong                            misses  = new AtomicLong();
+
+
+    /**
+     * @param maxSize 最多缓存条数
+     * @param ttl 过期时间
+     */
+    public QueryCache(int maxSize, Duration ttl) {
+        if (maxSize < 1) throw new IllegalArgumentException("Param maxSize must > 0");
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("Param ttl must > 0");
+        this.maxSize = maxSize;
+        this.ttl = ttl.toNanos();
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, QueryCache.Entry> eldest) {
+                if (size() <= QueryCache.this.maxSize) return false;
+                untag(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+
+    /**
+     * 取缓存, 没有时执行查询并缓存
+     * @param kind 查询种类(rows, row, single 等). 同一 sql 的不同查询方法结果不同
+     * @param sql sql 语句
+     * @param params 参数
+     * @param loader 查询函数
+     * @return 查询结果
+     */
+    public <T> T get(String kind, String sql, Object[] params, Supplier<T> loader) {
+        final Key key = new Key(kind, sql, params);
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expireAt - System.nanoTime() > 0) {
+                    hits.incrementAndGet();
+                    return (T) entry.value;
+                }
+                untag(key, entries.remove(key));
+            }
+        }
+        misses.incrementAndGet();
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        final CompletableFuture<Object> existing = loading.putIfAbsent(key, future);
+        if (existing != null) { // 相同查询正在执行
+            try {
+                return (T) existing.join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+                throw ex;
+            }
+        }
+        try {
+            final long e = epoch.get();
+            final T value = loader.get();
+            final Set<String> tables = tables(sql);
+            if (tables != null) synchronized (this) {
+                if (epoch.get() == e) {
+                    final Entry entry = new Entry(value, System.nanoTime() + ttl, tables);
+                    untag(key, entries.put(key, entry));
+                    for (String table : entry.tables) tags.computeIfAbsent(table, k -> new HashSet<>()).add(key);
+                }
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+
+    /**
+     * 更新语句执行后: 删除 sql 中涉及表的缓存. 解析不出表名时全部删除
+     * @param sql 更新 sql 语句
+     */
+    public void invalidate(String sql) {
+        final Set<String> tables = tables(sql);
+        if (tables == null || tables.isEmpty()) clear();
+        else invalidateTables(tables);
+    }
+
+
+    /**
+     * 删除这些表的缓存
+     * @param tables 表名
+     */
+    public synchronized void invalidateTables(Collection<String> tables) {
+        epoch.incrementAndGet();
+        for (String table : tables) {
+            final Set<Key> keys = tags.remove(table.toLowerCase());
+            if (keys == null) continue;
+            for (Key key : keys) untag(key, entries.remove(key));
+        }
+    }
+
+
+    /**
+     * 删除所有缓存
+     */
+    public synchronized void clear() {
+        epoch.incrementAndGet();
+        entries.clear();
+        tags.clear();
+    }
+
+
+    /**
+     * 缓存统计
+     * @return size, hits, misses
+     */
+    public synchronized Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        return stats;
+    }
+
+
+    protected void untag(Key key, Entry entry) {
+        if (entry == null) return;
+        for (String table : entry.tables) {
+            final Set<Key> keys = tags.get(table);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) tags.remove(table);
+        }
+    }
+
+
+    /**
+     * sql 中的表名(小写, 去掉库名)
+     * @return null: 解析不全(from 列表中有子查询)
+     */
+    protected static Set<String> tables(String sql) {
+        if (DERIVED.matcher(sql).find()) return null;
+        final Set<String> tables = new HashSet<>();
+        final Matcher m = TABLE.matcher(sql);
+        while (m.find()) {
+            addTable(tables, m.group(2));
+            final String kw = m.group(1).toLowerCase();
+            if (("from".equals(kw) || "update".equals(kw)) && !listTables(sql, m.end(), tables)) return null;
+        }
+        return tables;
+    }
+
+
+    /**
+     * from/update 列表中逗号分隔的其它表. 例: from a x, b as y join c on ..., d
+     * @param from 第一个表名之后的位置
+     * @return false: 列表中有子查询或者解析不出的表
+     */
+    protected static boolean listTables(String sql, int from, Set<String> tables) {
+        final int len = sql.length();
+        final Matcher next = NEXT_TABLE.matcher(sql);
+        final Matcher end = LIST_END.matcher(sql);
+        int depth = 0;
+        for (int i = from; i < len; i++) {
+            final char c = sql.charAt(i);
+            if (c == '\'') { // 跳过字符串常量
+                i = sql.indexOf('\'', i + 1);
+                if (i < 0) break;
+            } else if (c == '(') depth++;
+            else if (c == ')') {
+                if (--depth < 0) break; // 所在子查询结束
+            } else if (depth > 0) continue;
+            else if (c == ',') {
+                if (!next.region(i + 1, len).lookingAt() || next.group(1) != null) return false;
+                addTable(tables, next.group(2));
+                i = next.end() - 1;
+            } else if (Character.isLetter(c) && !Character.isJavaIdentifierPart(sql.charAt(i - 1)) && end.region(i, len).lookingAt()) break;
+        }
+        return true;
+    }
+
+
+    protected static void addTable(Set<String> tables, String name) {
+        final String table = name.substring(name.lastIndexOf('.') + 1);
+        tables.add(table.replaceAll("[`\"\\[\\]]", "").toLowerCase());
+    }
+
+
+    protected static class Key {
+        protected final String   kind;
+        protected final String   sql;
+        protected final Object[] params;
+        protected final int      hash;
+
+        protected Key(String kind, String sql, Object[] params) {
+            this.kind = kind;
+            this.sql = sql;
+            this.params = params == null ? new Object[0] : params.clone();
+            this.hash = Objects.hash(kind, sql) * 31 + Arrays.deepHashCode(this.params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return hash == other.hash && kind.equals(other.kind) && sql.equals(other.sql) && Arrays.deepEquals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+    }
+
+
+    protected static class Entry {
+        protected final Object      value;
+        /**
+         * 过期时间点 {@link System#nanoTime()}
+         */
+        protected final long        expireAt;
+        protected final Set<String> tables;
+
+        protected Entry(Object value, long expireAt, Set<String> tables) {
+            this.value = value;
+            this.expireAt = expireAt;
+            this.tables = tables;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package cn.xnatural.app.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 读写分离 {@link DB}
+ * 查询({@link #rows}, {@link #row}, {@link #single}, {@link #query}, {@link #compactRows}, {@link #stream}) 走从库
+ * 更新({@link #execute}, {@link #batch}, {@link #trans} 等) 走主库. 事务中的查询也走主库(读自己刚写的数据)
+ * 从库选择: 轮询 {@link Strategy#ROUND_ROBIN} 或者 最小延迟 {@link Strategy#LEAST_LATENCY}
+ * 从库连续获取连接失败 maxFails 次后, 摘除 ejectTime 时间, 之后再试. 所有从库都不可用时读主库
+ */
+public class RoutingDB extends DB {
+    protected static final Logger log = LoggerFactory.getLogger(RoutingDB.class);
+    /**
+     * 从库
+     */
+    protected final List<Replica> replicas = new CopyOnWriteArrayList<>();
+    /**
+     * 从库 jdbc 连接地址(延迟创建数据源)
+     */
+    protected final List<String>  replicaUrls = new ArrayList<>();
+    /**
+     * 轮询计数
+     */
+    protected final AtomicInteger counter = new AtomicInteger();
+    /**
+     * 从库选择策略
+     */
+    protected Strategy strategy  = Strategy.ROUND_ROBIN;
+    /**
+     * 连续失败多少次后摘除
+     */
+    protected int      maxFails  = 3;
+    /**
+     * 摘除时长
+     */
+    protected Duration ejectTime = Duration.ofSeconds(30);
+
+
+    /**
+     * 创建一个 {@link RoutingDB}
+     * @param primary 主库数据源
+     * @param replicas 从库数据源
+     */
+    public RoutingDB(DataSource primary, DataSource... replicas) {
+        super(primary);
+        if (replicas != null) {
+            for (DataSource ds : replicas) {
+                if (ds == null) throw new IllegalArgumentException("Param replicas contains null");
+                this.replicas.add(new Replica(name + "-replica-" + this.replicas.size(), ds));
+            }
+        }
+    }
+
+    /**
+     * 创建一个 {@link RoutingDB}
+     * 从库使用和主库一样的连接池属性 {@link #dsAttr(String, Object)}
+     * @param jdbcUrl 主库 jdbc 连接地址
+     * @param replicaUrls 从库 jdbc 连接地址
+     * @param minIdle 最小连接
+     * @param maxActive 最大活动连接
+     */
+    public RoutingDB(String jdbcUrl, List<String> replicaUrls, Integer minIdle, Integer maxActive) {
+        super(jdbcUrl, minIdle, maxActive);
+        if (replicaUrls != null) {
+            for (String url : replicaUrls) {
+                if (url == null || url.isEmpty()) throw new IllegalArgumentException("Param replicaUrls contains empty");
+                this.replicaUrls.add(url);
+            }
+        }
+    }
+
+
+    /**
+     * 设置从库选择策略
+     * @param strategy {@link Strategy}
+     * @return {@link RoutingDB}
+     */
+    public RoutingDB setStrategy(Strategy strategy) {
+        if (strategy == null) throw new IllegalArgumentException("Param strategy required");
+        this.strategy = strategy;
+        return this;
+    }
+
+
+    /**
+     * 设置从库摘除规则
+     * @param maxFails 连续失败多少次后摘除. > 0
+     * @param ejectTime 摘除时长
+     * @return {@link RoutingDB}
+     */
+    public RoutingDB setEject(int maxFails, Duration ejectTime) {
+        if (maxFails < 1) throw new IllegalArgumentException("Param maxFails must > 0");
+        if (ejectTime == null || ejectTime.isNegative()) throw new IllegalArgumentException("Param ejectTime must >= 0");
+        this.maxFails = maxFails;
+        this.ejectTime = ejectTime;
+        return this;
+    }
+
+
+    @Override
+    protected DB init() {
+        super.init();
+        if (replicas.size() < replicaUrls.size()) {
+            synchronized (this) {
+                for (int i = replicas.size(); i < replicaUrls.size(); i++) {
+                    final Map<String, Object> attr = new HashMap<>(dsAttr);
+                    attr.put("url", replicaUrls.get(i)); attr.put("jdbcUrl", replicaUrls.get(i));
+                    replicas.add(new Replica(name + "-replica-" + i, createDataSource(attr)));
+                }
+            }
+        }
+        return this;
+    }
+
+
+    @Override
+    protected <T> T withReadConn(Function<Connection, T> fn) {
+        init();
+        if (txConn.get() != null) return withConn(fn); // 事务中: 读主库
+        for (int i = 0; i < replicas.size(); i++) {
+            final Replica replica = choose();
+            if (replica == null) break;
+            final SqlMonitor m = monitor;
+            final long begin = System.nanoTime();
+            final Connection conn;
+            try {
+                conn = replica.ds.getConnection();
+            } catch (SQLException ex) {
+                replica.failed(ex);
+                continue;
+            }
+            if (m != null) m.acquired(System.nanoTime() - begin);
+            try {
+                final T t = fn.apply(conn);
+                replica.succeeded(System.nanoTime() - begin);
+                return t;
+            } catch (RuntimeException ex) {
+                if (isConnectionError(ex)) replica.failed(ex);
+                throw ex;
+            } finally {
+                if (m != null) m.released();
+                try {
+                    conn.close();
+                } catch (SQLException ex) {
+                    log.warn("Close replica connection error. " + replica.name, ex);
+                }
+            }
+        }
+        return withConn(fn); // 没有可用的从库: 读主库
+    }
+
+
+    /**
+     * 流式查询 {@link #stream} 的读连接: 和 {@link #withReadConn(Function)} 一样选择从库
+     * 获取连接失败的从库计入摘除, 没有可用的从库时读主库
+     */
+    @Override
+    protected Connection readConnection() throws SQLException {
+        init();
+        if (txConn.get() != null) return super.readConnection(); // 事务中: 读主库
+        for (int i = 0; i < replicas.size(); i++) {
+            final Replica replica = choose();
+            if (replica == null) break;
+            try {
+                final Connection conn = replica.ds.getConnection();
+                replica.fails.set(0);
+                return conn;
+            } catch (SQLException ex) {
+                replica.failed(ex);
+            }
+        }
+        return super.readConnection(); // 没有可用的从库: 读主库
+    }
+
+
+    /**
+     * 选择一个可用的从库
+     * @return null: 没有可用的从库
+     */
+    protected Replica choose() {
+        final int size = replicas.size();
+        if (size == 0) return null;
+        final long now = System.currentTimeMillis();
+        if (strategy == Strategy.LEAST_LATENCY) {
+            Replica best = null;
+            for (Replica r : replicas) {
+                if (r.available(now) && (best == null || r.latency < best.latency)) best = r;
+            }
+            return best;
+        }
+        final int start = Math.floorMod(counter.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            final Replica r = replicas.get((start + i) % size);
+            if (r.available(now)) return r;
+        }
+        return null;
+    }
+
+
+    /**
+     * 是否为连接错误(SQLState 08 开头: 连接异常)
+     */
+    protected static boolean isConnectionError(Throwable ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                final String state = ((SQLException) t).getSQLState();
+                return state != null && state.startsWith("08");
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * 从库状态
+     * @return 从库名 -> 状态
+     */
+    public Map<String, Object> replicaStats() {
+        init();
+        final long now = System.currentTimeMillis();
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        for (Replica r : replicas) {
+            final Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("available", r.available(now));
+            stat.put("fails", r.fails.get());
+            stat.put("latencyMs", r.latency / 1_000_000.0);
+            stats.put(r.name, stat);
+        }
+        return stats;
+    }
+
+
+    @Override
+    public void close() throws Exception {
+        super.close();
+        for (Replica r : replicas) {
+            try {
+                r.ds.getClass().getMethod("close").invoke(r.ds);
+            } catch (Exception e) {}
+        }
+    }
+
+
+    /**
+     * 从库选择策略
+     */
+    public enum Strategy {
+        /**
+         * 轮询
+         */
+        ROUND_ROBIN,
+        /**
+         * 最小延迟(查询耗时的指数移动平均)
+         */
+        LEAST_LATENCY
+    }
+
+
+    /**
+     * 从库
+     */
+    protected class Replica {
+        protected final String        name;
+        protected final DataSource    ds;
+        /**
+         * 连续失败次数
+         */
+        protected final AtomicInteger fails = new AtomicInteger();
+        /**
+         * 摘除到什么时候(毫秒)
+         */
+        protected volatile long       ejectUntil;
+        /**
+         * 查询耗时的指数移动平均(纳秒)
+         */
+        protected volatile long       latency;
+
+        protected Replica(String name, DataSource ds) {
+            this.name = name;
+            this.ds = ds;
+        }
+
+        protected boolean available(long now) { return ejectUntil <= now; }
+
+        protected void succeeded(long cost) {
+            fails.set(0);
+            final long l = latency;
+            latency = l == 0 ? cost : l + (cost - l) / 5;
+        }
+
+        protected void failed(Exception ex) {
+            if (fails.incrementAndGet() >= maxFails) {
+                fails.set(0);
+                ejectUntil = System.currentTimeMillis() + ejectTime.toMillis();
+                log.warn("Eject replica " + name + " for " + ejectTime + ". " + ex);
+            } else log.warn("Replica " + name + " error. " + ex);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package cn.xnatural.app.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * {@link DB} sql 监控(不依赖连接池实现) {@link DB#setMonitor(Duration)}
+ * 按 sql 指纹(去掉常量, 合并空白)统计: 执行次数, 失败次数, 获取连接耗时, 执行耗时分布, 返回/影响行数
+ * 执行耗时超过 slowThreshold 的 sql 打印警告日志
+ * 通过 JMX 查看: cn.xnatural.app:type=DB,name=DB名 {@link MBean}
+ * JMX 注册的 {@link MBean} 强引用本对象, 由 {@link DB#close()} 注销
+ */
+public class SqlMonitor {
+    protected static final Logger  log          = LoggerFactory.getLogger(SqlMonitor.class);
+    /**
+     * 耗时分布的区间上界(毫秒)
+     */
+    protected static final long[]  BOUNDS       = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000};
+    protected static final Pattern STRING       = Pattern.compile("'(?:[^']|'')*'");
+    protected static final Pattern NUMBER       = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    protected static final Pattern IN_LIST      = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    protected static final Pattern SPACE        = Pattern.compile("\\s+");
+    /**
+     * 最多统计多少个 sql 指纹, 超过的合并到 OTHER
+     */
+    protected static final int     MAX_SQL      = 1000;
+    protected static final String  OTHER        = "<other>";
+    /**
+     * 名字标识
+     */
+    public final String name;
+    /**
+     * 慢 sql 阈值(纳秒)
+     */
+    protected final long                    slowThreshold;
+    /**
+     * sql 指纹 -> 统计
+     */
+    protected final Map<String, Stat>       stats       = new ConcurrentHashMap<>();
+    /**
+     * sql -> sql 指纹
+     */
+    protected final Map<String, String>     fingerprints = new ConcurrentHashMap<>();
+    /**
+     * 获取连接耗时
+     */
+    protected final Histogram               acquire     = new Histogram();
+    /**
+     * 当前线程刚获取连接的耗时, 计入连接上执行的第一条 sql
+     */
+    protected final ThreadLocal<Long>       pendingAcquire = new ThreadLocal<>();
+
+
+    /**
+     * @param name 名字标识
+     * @param slowThreshold 慢 sql 阈值
+     */
+    public SqlMonitor(String name, Duration slowThreshold) {
+        if (slowThreshold == null || slowThreshold.isNegative()) throw new IllegalArgumentException("Param slowThreshold must >= 0");
+        this.name = name;
+        this.slowThreshold = slowThreshold.toNanos();
+    }
+
+
+    /**
+     * 记录获取连接耗时
+     * @param nanos 耗时(纳秒)
+     */
+    public void acquired(long nanos) {
+        acquire.add(nanos);
+        pendingAcquire.set(nanos);
+    }
+
+
+    /**
+     * 连接释放: 清除当前线程未计入 sql 的获取连接耗时
+     */
+    public void released() { pendingAcquire.remove(); }
+
+
+    /**
+     * 记录一次 sql 执行
+     * @param sql sql 语句
+     * @param nanos 执行耗时(纳秒)
+     * @param rows 返回/影响行数
+     * @param ok 是否成功
+     */
+    public void record(String sql, long nanos, long rows, boolean ok) {
+        final Long acquireNanos = pendingAcquire.get();
+        if (acquireNanos != null) pendingAcquire.remove();
+        record(sql, acquireNanos, nanos, rows, ok);
+    }
+
+
+    /**
+     * 记录一次 sql 执行(获取连接和执行不在同一个调用里, 例: 流式查询 {@link DB#stream})
+     * @param sql sql 语句
+     * @param acquireNanos 获取连接耗时(纳秒). null: 没有获取连接(例: 事务中)
+     * @param nanos 执行耗时(纳秒)
+     * @param rows 返回/影响行数
+     * @param ok 是否成功
+     */
+    public void record(String sql, Long acquireNanos, long nanos, long rows, boolean ok) {
+        String fp = fingerprints.get(sql);
+        if (fp == null) {
+            fp = fingerprint(sql);
+            if (fingerprints.size() < MAX_SQL * 10) fingerprints.put(sql, fp);
+        }
+        Stat stat = stats.get(fp);
+        if (stat == null) stat = stats.computeIfAbsent(stats.size() < MAX_SQL ? fp : OTHER, Stat::new);
+        stat.count.increment();
+        if (!ok) stat.errors.increment();
+        stat.rows.add(rows);
+        if (acquireNanos != null) stat.acquire.add(acquireNanos);
+        stat.exec.add(nanos);
+        if (nanos >= slowThreshold) {
+            log.warn("Slow sql({}ms): {}", TimeUnit.NANOSECONDS.toMillis(nanos), sql);
+        }
+    }
+
+
+    /**
+     * sql 指纹: 常量替换为 ?, in (?, ?, ...) 合并为 in (?), 合并空白, 小写
+     * @param sql sql 语句
+     * @return sql 指纹
+     */
+    public static String fingerprint(String sql) {
+        String s = STRING.matcher(sql).replaceAll("?");
+        s = NUMBER.matcher(s).replaceAll("?");
+        s = IN_LIST.matcher(s).replaceAll("(?)");
+        return SPACE.matcher(s).replaceAll(" ").trim().toLowerCase();
+    }
+
+
+    /**
+     * 最慢的前 topN 个 sql(按最大执行耗时排序)
+     * @param topN 个数
+     * @return 统计列表
+     */
+    public List<Stat> top(int topN) {
+        final List<Stat> ls = new ArrayList<>(stats.values());
+        ls.sort((s1, s2) -> Long.compare(s2.exec.max.get(), s1.exec.max.get()));
+        return ls.subList(0, Math.min(topN, ls.size()));
+    }
+
+
+    /**
+     * 报告: 获取连接耗时 和 最慢的前 topN 个 sql
+     * @param topN 个数
+     * @return 报告字符串
+     */
+    public String report(int topN) {
+        final StringBuilder sb = new StringBuilder(name).append(" acquire: ").append(acquire);
+        for (Stat stat : top(topN)) sb.append("\n    ").append(stat);
+        return sb.toString();
+    }
+
+
+    /**
+     * 清除统计
+     */
+    public void reset() {
+        stats.clear();
+        acquire.reset();
+    }
+
+
+    /**
+     * JMX 接口
+     */
+    public interface MBean {
+        /**
+         * 最慢的前 10 个 sql
+         */
+        String getReport();
+
+        /**
+         * 最慢的前 topN 个 sql
+         */
+        String report(int topN);
+
+        /**
+         * 获取连接的次数
+         */
+        long getAcquireCount();
+
+        /**
+         * 获取连接的平均耗时(毫秒)
+         */
+        double getAcquireAvgMs();
+
+        /**
+         * 获取连接的最大耗时(毫秒)
+         */
+        double getAcquireMaxMs();
+
+        /**
+         * 统计的 sql 指纹个数
+         */
+        int getSqlCount();
+
+        /**
+         * 清除统计
+         */
+        void reset();
+    }
+
+
+    /**
+     * {@link MBean} 实现
+     */
+    protected MBean mbean() {
+        return new MBean() {
+            @Override
+            public String getReport() { return report(10); }
+
+            @Override
+            public String report(int topN) { return SqlMonitor.this.report(topN); }
+
+            @Override
+            public long getAcquireCount() { return acquire.count(); }
+
+            @Override
+            public double getAcquireAvgMs() { return acquire.avgMs(); }
+
+            @Override
+            public double getAcquireMaxMs() { return acquire.max.get() / 1_000_000.0; }
+
+            @Override
+            public int getSqlCount() { return stats.size(); }
+
+            @Override
+            public void reset() { SqlMonitor.this.reset(); }
+        };
+    }
+
+
+    /**
+     * 一个 sql 指纹的统计
+     */
+    public static class Stat {
+        /**
+         * sql 指纹
+         */
+        public final    String    sql;
+        protected final LongAdder count   = new LongAdder();
+        protected final LongAdder errors  = new LongAdder();
+        protected final LongAdder rows    = new LongAdder();
+        /**
+         * 获取连接耗时
+         */
+        public final    Histogram acquire = new Histogram();
+        /**
+         * 执行耗时
+         */
+        public final    Histogram exec    = new Histogram();
+
+        protected Stat(String sql) { this.sql = sql; }
+
+        /**
+         * 执行次数
+         */
+        public long getCount() { return count.sum(); }
+
+        /**
+         * 失败次数
+         */
+        public long getErrors() { return errors.sum(); }
+
+        /**
+         * 返回/影响的总行数
+         */
+        public long getRows() { return rows.sum(); }
+
+        @Override
+        public String toString() {
+            return "count: " + getCount() + ", errors: " + getErrors() + ", rows: " + getRows() +
+                    ", acquire: " + acquire + ", exec: " + exec + ", sql: " + sql;
+        }
+    }
+
+
+    /**
+     * 耗时分布: 按 {@link #BOUNDS} 分区间计数
+     */
+    public static class Histogram {
+        protected final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+        protected final LongAdder       total   = new LongAdder();
+        protected final AtomicLong      max     = new AtomicLong();
+
+        /**
+         * 记录一次耗时
+         * @param nanos 纳秒
+         */
+        public void add(long nanos) {
+            final long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int i = 0;
+            while (i < BOUNDS.length && ms >= BOUNDS[i]) i++;
+            buckets.incrementAndGet(i);
+            total.add(nanos);
+            for (long m = max.get(); nanos > m && !max.compareAndSet(m, nanos); m = max.get());
+        }
+
+        public long count() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) count += buckets.get(i);
+            return count;
+        }
+
+        public double avgMs() {
+            final long count = count();
+            return count == 0 ? 0 : total.sum() / 1_000_000.0 / count;
+        }
+
+        /**
+         * 百分位耗时的上界(毫秒)
+         * @param p 百分位 (0, 1]. 例: 0.99
+         * @return 所在区间的上界. 超过最大区间时为最大耗时
+         */
+        public long percentileMs(double p) {
+            final long count = count();
+            if (count == 0) return 0;
+            final long target = (long) Math.ceil(count * p);
+            long sum = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                sum += buckets.get(i);
+                if (sum >= target) return BOUNDS[i];
+            }
+            return TimeUnit.NANOSECONDS.toMillis(max.get());
+        }
+
+        protected void reset() {
+            for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+            total.reset();
+            max.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{avg: %.2fms, p50: <%dms, p99: <%dms, max: %.2fms}", avgMs(), percentileMs(0.5), percentileMs(0.99), max.get() / 1_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import cn.xnatural.app.AotIndex;
+import cn.xnatural.app.AotProcessor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class AotTest {
+
+    static final String A = "import cn.xnatural.app.Inject;\n" +
+            "import cn.xnatural.enet.event.EL;\n" +
+            "public class A implements Comparable<A> {\n" +
+            "    @Inject Object foo;\n" +
+            "    @Inject(name = \"x\") String bar;\n" +
+            "    int plain;\n" +
+            "    @EL(name = {\"a.e\", \"{name}.b\"}, async = true, order = 1.5f) void on(String s, int[] is) {}\n" +
+            "    @EL(name = \"sys.starting\") void start() {}\n" +
+            "    public int compareTo(A o) { return 0; }\n" +
+            "    Runnable r() { return () -> plain++; }\n" +
+            "    class Inner { @Inject Object inner; }\n" +
+            "}\n";
+
+    static final String B = "import cn.xnatural.app.Inject;\n" +
+            "public class B { @Inject A a; }\n";
+
+
+    /**
+     * 编译源码到 out 目录
+     * @param proc 是否使用 {@link AotProcessor}
+     */
+    static void compile(File out, boolean proc, String clzName, String source) throws Exception {
+        final File src = new File(out.getParentFile(), "src/" + clzName + ".java");
+        src.getParentFile().mkdirs();
+        Files.write(src.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final List<String> args = new ArrayList<>(Arrays.asList("-d", out.getAbsolutePath(),
+                "-cp", System.getProperty("java.class.path") + File.pathSeparator + out.getAbsolutePath()));
+        if (proc) args.addAll(Arrays.asList("-processor", AotProcessor.class.getName()));
+        else args.add("-proc:none");
+        args.add(src.getAbsolutePath());
+        Assertions.assertEquals(0, compiler.run(null, null, null, args.toArray(new String[0])));
+    }
+
+
+    static List<String> injects(List<String[]> injects) {
+        return injects.stream().map(inject -> inject[0] + "=" + inject[1]).collect(Collectors.toList());
+    }
+
+
+    @Test
+    void processorTest() throws Exception {
+        final File out = new File(Files.createTempDirectory("aot").toFile(), "classes");
+        out.mkdirs();
+        compile(out, true, "A", A);
+        try (URLClassLoader cl = new URLClassLoader(new URL[]{out.toURI().toURL()}, getClass().getClassLoader())) {
+            final AotIndex index = AotIndex.load(cl);
+            Assertions.assertFalse(index.isEmpty());
+            final Class<?> a = cl.loadClass("A");
+            Assertions.assertEquals(Arrays.asList("foo=", "bar=x"), injects(index.injects(a)));
+            final List<AotIndex.Listen> ls = index.listeners(a);
+            Assertions.assertEquals(2, ls.size());
+            // 注解属性在索引中, 不用读取注解
+            Assertions.assertEquals("on", ls.get(0).method);
+            Assertions.assertArrayEquals(new String[]{"a.e", "{name}.b"}, ls.get(0).names);
+            Assertions.assertTrue(ls.get(0).async);
+            Assertions.assertEquals(1.5f, ls.get(0).order);
+            Assertions.assertArrayEquals(new String[]{"sys.starting"}, ls.get(1).names);
+            Assertions.assertFalse(ls.get(1).async);
+            Assertions.assertEquals(0f, ls.get(1).order);
+            final Method on = AotIndex.method(a, ls.get(0).method, ls.get(0).paramTypes);
+            Assertions.assertArrayEquals(new Class[]{String.class, int[].class}, on.getParameterTypes());
+            Assertions.assertEquals(Arrays.asList("inner="), injects(index.injects(cl.loadClass("A$Inner"))));
+            Assertions.assertTrue(index.listeners(cl.loadClass("A$Inner")).isEmpty());
+        }
+    }
+
+
+    @Test
+    void incrementalTest() throws Exception {
+        final File out = new File(Files.createTempDirectory("aot").toFile(), "classes");
+        out.mkdirs();
+        compile(out, true, "A", A);
+        compile(out, true, "B", B); // 增量编译: 合并已有索引
+        try (URLClassLoader cl = new URLClassLoader(new URL[]{out.toURI().toURL()}, getClass().getClassLoader())) {
+            final AotIndex index = AotIndex.load(cl);
+            Assertions.assertEquals(Arrays.asList("foo=", "bar=x"), injects(index.injects(cl.loadClass("A"))));
+            Assertions.assertEquals(Arrays.asList("a="), injects(index.injects(cl.loadClass("B"))));
+        }
+    }
+
+
+    @Test
+    void versionTest() throws Exception {
+        final File out = new File(Files.createTempDirectory("aot").toFile(), "classes");
+        out.mkdirs();
+        compile(out, true, "A", A);
+        final File idx = new File(out, AotIndex.RESOURCE);
+        final List<String> lines = Files.readAllLines(idx.toPath(), StandardCharsets.UTF_8);
+        Assertions.assertEquals(AotIndex.header(), lines.get(0));
+        // 旧格式的索引(没有版本行): 整个忽略, 由调用方反射查找
+        Files.write(idx.toPath(), lines.subList(1, lines.size()), StandardCharsets.UTF_8);
+        try (URLClassLoader cl = new URLClassLoader(new URL[]{out.toURI().toURL()}, getClass().getClassLoader())) {
+            final AotIndex index = AotIndex.load(cl);
+            Assertions.assertTrue(index.isEmpty());
+            Assertions.assertNull(index.injects(cl.loadClass("A")));
+            Assertions.assertNull(index.listeners(cl.loadClass("A")));
+        }
+        // 增量编译不保留旧格式的索引行
+        compile(out, true, "B", B);
+        try (URLClassLoader cl = new URLClassLoader(new URL[]{out.toURI().toURL()}, getClass().getClassLoader())) {
+            final AotIndex index = AotIndex.load(cl);
+            Assertions.assertNull(index.injects(cl.loadClass("A")));
+            Assertions.assertEquals(Arrays.asList("a="), injects(index.injects(cl.loadClass("B"))));
+        }
+    }
+}
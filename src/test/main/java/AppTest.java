@@ -1,4 +1,7 @@
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
 import cn.xnatural.app.AppContext;
+import cn.xnatural.app.DependsOn;
 import cn.xnatural.app.Inject;
 import cn.xnatural.app.ServerTpl;
 import cn.xnatural.app.Utils;
@@ -7,9 +10,16 @@ import cn.xnatural.enet.event.EL;
 import cn.xnatural.http.HttpServer;
 import cn.xnatural.remoter.Remoter;
 import cn.xnatural.sched.Sched;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
-import java.util.Random;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AppTest {
 
@@ -144,4 +154,442 @@ public class AppTest {
             }
         };
     }
+
+
+    public static class Foo {}
+    public static class Bar {
+        final String v;
+        Bar(String v) { this.v = v; }
+    }
+    public static class Base {
+        @Inject Foo foo;
+    }
+    public static class Child extends Base {
+        @Inject(name = "bar2") Bar bar;
+        @Inject Runnable late;
+    }
+
+
+    @Test
+    void injectTest() {
+        final AppContext app = new AppContext();
+        final Foo foo = new Foo();
+        app.addSource(foo, "foo").addSource(new Bar("1"), "bar1").addSource(new Bar("2"), "bar2");
+        final Child c1 = new Child();
+        app.inject(c1);
+        Assertions.assertSame(foo, c1.foo); // 父类字段
+        Assertions.assertEquals("2", c1.bar.v); // 按名字注入
+        Assertions.assertNull(c1.late);
+        // 注入计划已缓存: 动态添加 bean 后再注入, 只注入之前没有值的字段
+        final Runnable late = () -> {};
+        app.addSource(late, "late");
+        final Child c2 = new Child();
+        app.inject(c2); app.inject(c1);
+        Assertions.assertSame(late, c1.late);
+        Assertions.assertSame(late, c2.late);
+        Assertions.assertSame(foo, c2.foo);
+        Assertions.assertEquals("2", c2.bar.v);
+    }
+
+
+    /**
+     * 创建测试应用
+     * @param attrs 自定义属性
+     */
+    static AppContext app(Map<String, Object> attrs) {
+        return new AppContext() {
+            @Override
+            protected void customEnv(Map<String, Object> already) { already.putAll(attrs); }
+        };
+    }
+
+
+    /**
+     * 捕获 {@link AppContext} 的日志
+     */
+    static ListAppender<ILoggingEvent> captureLog() {
+        final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(AppContext.class)).addAppender(appender);
+        return appender;
+    }
+
+
+    static boolean logged(ListAppender<ILoggingEvent> appender, String msg) {
+        return appender.list.stream().anyMatch(e -> e.getFormattedMessage().contains(msg));
+    }
+
+
+    static void detach(ListAppender<ILoggingEvent> appender) {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(AppContext.class)).detachAppender(appender);
+        appender.stop();
+    }
+
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * 测试服务: sys.starting 时记录启动顺序
+     */
+    public static class Svc {
+        final List<String> order;
+        final String       name;
+        long               cost;
+        boolean            fail;
+
+        Svc(List<String> order, String name) { this.order = order; this.name = name; }
+
+        Svc cost(long cost) { this.cost = cost; return this; }
+
+        Svc fail() { this.fail = true; return this; }
+
+        @EL(name = "sys.starting")
+        public void start() {
+            order.add(name + ":start");
+            sleep(cost);
+            if (fail) throw new IllegalStateException(name + " start fail");
+            order.add(name + ":end");
+        }
+    }
+    @DependsOn("a")
+    public static class DependsA extends Svc {
+        DependsA(List<String> order, String name) { super(order, name); }
+    }
+    @DependsOn("y")
+    public static class DependsY extends Svc {
+        DependsY(List<String> order, String name) { super(order, name); }
+    }
+    @DependsOn("x")
+    public static class DependsX extends Svc {
+        DependsX(List<String> order, String name) { super(order, name); }
+    }
+    @DependsOn("none")
+    public static class DependsNone extends Svc {
+        DependsNone(List<String> order, String name) { super(order, name); }
+    }
+    public static class Started {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        @EL(name = "sys.started")
+        public void started() { latch.countDown(); }
+    }
+
+
+    @Test
+    void startParallelOrderTest() throws Exception {
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final Started started = new Started();
+        app(Collections.singletonMap("sys.start.parallel", true))
+                .addSource(new DependsA(order, "b"), "b")
+                .addSource(new Svc(order, "a").cost(200), "a")
+                .addSource(new Svc(order, "c").cost(200), "c")
+                .addSource(started, "started")
+                .start();
+        Assertions.assertTrue(started.latch.await(5, TimeUnit.SECONDS));
+        // b 依赖 a: a 启动完后 b 才启动
+        Assertions.assertTrue(order.indexOf("a:end") < order.indexOf("b:start"));
+        // a, c 没有依赖关系: 并发启动
+        Assertions.assertTrue(order.indexOf("c:start") < order.indexOf("a:end"));
+        Assertions.assertTrue(order.indexOf("a:start") < order.indexOf("c:end"));
+    }
+
+
+    @Test
+    void startParallelBadDependsTest() throws Exception {
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final Started started = new Started();
+        final ListAppender<ILoggingEvent> appender = captureLog();
+        app(Collections.singletonMap("sys.start.parallel", true))
+                .addSource(new DependsY(order, "x"), "x")
+                .addSource(new DependsX(order, "y"), "y")
+                .addSource(new DependsNone(order, "m"), "m")
+                .addSource(started, "started")
+                .start();
+        Assertions.assertTrue(started.latch.await(5, TimeUnit.SECONDS));
+        // 循环依赖和不存在的依赖: 报告并忽略该依赖, 服务照常启动
+        Assertions.assertTrue(order.containsAll(Arrays.asList("x:end", "y:end", "m:end")));
+        Assertions.assertTrue(logged(appender, "dependency cycle"));
+        Assertions.assertTrue(logged(appender, "unknown service 'none'"));
+        detach(appender);
+    }
+
+
+    @Test
+    void startParallelFailTest() throws Exception {
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final Started started = new Started();
+        final ListAppender<ILoggingEvent> appender = captureLog();
+        app(Collections.singletonMap("sys.start.parallel", true))
+                .addSource(new Svc(order, "a").fail(), "a")
+                .addSource(new DependsA(order, "b"), "b")
+                .addSource(started, "started")
+                .start();
+        // 启动失败的服务不会阻塞启动, 依赖它的服务照常启动
+        Assertions.assertTrue(started.latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(Arrays.asList("a:start", "b:start", "b:end"), order);
+        Assertions.assertTrue(logged(appender, "Start service 'a' error"));
+        detach(appender);
+    }
+
+
+    /**
+     * 延迟创建的测试服务
+     */
+    public static class LazySvc {
+        static final AtomicInteger created  = new AtomicInteger();
+        final List<String>         received = new CopyOnWriteArrayList<>();
+        volatile boolean           started;
+
+        public LazySvc() { created.incrementAndGet(); }
+
+        @EL(name = "sys.starting")
+        public void start() { started = true; }
+
+        @EL(name = "lazy.hello")
+        public void hello(String msg) { received.add(msg); }
+    }
+    public static class LazyHolder {
+        @Inject LazySvc lazy;
+    }
+
+
+    @Test
+    void lazySourceTest() throws Exception {
+        LazySvc.created.set(0);
+        final Started started = new Started();
+        final AppContext app = app(Collections.emptyMap())
+                .addSource(LazySvc.class, "lazy", LazySvc::new, true)
+                .addSource(started, "started");
+        app.start();
+        Assertions.assertTrue(started.latch.await(5, TimeUnit.SECONDS));
+        // 启动不会创建延迟对象源, 延迟对象源也不会收到 sys.starting
+        Assertions.assertEquals(0, LazySvc.created.get());
+        Assertions.assertTrue(app.ep().exist("lazy.hello"));
+        // bean 查找时创建
+        final LazySvc svc = app.bean(LazySvc.class, null);
+        Assertions.assertNotNull(svc);
+        Assertions.assertSame(svc, app.bean(LazySvc.class, "lazy"));
+        Assertions.assertEquals(1, LazySvc.created.get());
+        Assertions.assertFalse(svc.started);
+        // 被注入时直接使用已创建的对象
+        final LazyHolder holder = new LazyHolder();
+        app.addSource(holder, "holder");
+        Assertions.assertSame(svc, holder.lazy);
+        Assertions.assertEquals(1, LazySvc.created.get());
+    }
+
+
+    @Test
+    void lazySourceInjectTest() {
+        LazySvc.created.set(0);
+        final AppContext app = app(Collections.emptyMap()).addSource(LazySvc.class, "lazy", LazySvc::new, true);
+        Assertions.assertEquals(0, LazySvc.created.get());
+        // @Inject 时创建
+        final LazyHolder holder = new LazyHolder();
+        app.addSource(holder, "holder");
+        Assertions.assertNotNull(holder.lazy);
+        Assertions.assertEquals(1, LazySvc.created.get());
+    }
+
+
+    @Test
+    void lazySourceEventTest() {
+        LazySvc.created.set(0);
+        final AppContext app = app(Collections.emptyMap()).addSource(LazySvc.class, "lazy", LazySvc::new, true);
+        Assertions.assertEquals(0, LazySvc.created.get());
+        // 第一次触发其监听的事件时创建, 并收到该事件
+        app.ep().fire("lazy.hello", "1");
+        Assertions.assertEquals(1, LazySvc.created.get());
+        final LazySvc svc = app.bean(LazySvc.class, "lazy");
+        app.ep().fire("lazy.hello", "2");
+        Assertions.assertEquals(Arrays.asList("1", "2"), svc.received);
+        Assertions.assertEquals(1, LazySvc.created.get());
+        // 创建后删除监听
+        app.ep().removeEvent("lazy.hello", svc);
+        app.ep().fire("lazy.hello", "3");
+        Assertions.assertEquals(Arrays.asList("1", "2"), svc.received);
+        Assertions.assertEquals(1, LazySvc.created.get());
+    }
+
+
+    @Test
+    void lazySourceRemoveEventTest() {
+        LazySvc.created.set(0);
+        final AppContext app = app(Collections.emptyMap()).addSource(LazySvc.class, "lazy", LazySvc::new, true);
+        // 创建前删除事件的所有监听: 不再因为此事件创建
+        app.ep().removeEvent("lazy.hello", null);
+        Assertions.assertFalse(app.ep().exist("lazy.hello"));
+        app.ep().fire("lazy.hello", "1");
+        Assertions.assertEquals(0, LazySvc.created.get());
+        Assertions.assertNotNull(app.bean(LazySvc.class, "lazy"));
+        Assertions.assertEquals(1, LazySvc.created.get());
+    }
+
+
+    @Test
+    void lazySourceConcurrentTest() throws Exception {
+        LazySvc.created.set(0);
+        final AppContext app = app(Collections.emptyMap()).addSource(LazySvc.class, "lazy", () -> {
+            sleep(50); // 放大并发创建的窗口
+            return new LazySvc();
+        }, true);
+        final int threads = 8;
+        final CountDownLatch ready = new CountDownLatch(1);
+        final List<Object> got = new CopyOnWriteArrayList<>();
+        final List<Thread> ts = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int j = i;
+            Thread t = new Thread(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (j % 2 == 0) got.add(app.bean(LazySvc.class, null));
+                else {
+                    app.ep().fire("lazy.hello", "t" + j);
+                    got.add(app.bean(LazySvc.class, "lazy"));
+                }
+            });
+            t.start(); ts.add(t);
+        }
+        ready.countDown();
+        for (Thread t : ts) t.join(5000);
+        // 并发第一次使用只创建一个对象
+        Assertions.assertEquals(1, LazySvc.created.get());
+        Assertions.assertEquals(threads, got.size());
+        Assertions.assertEquals(1, new HashSet<>(got).size());
+    }
+
+
+    public static class SlowDep {}
+    public static class NeedDep {
+        @Inject SlowDep dep;
+    }
+    public static class CycA {
+        @Inject CycB b;
+    }
+    public static class CycB {
+        @Inject CycA a;
+    }
+
+
+    @Test
+    void lazySourcePublishTest() throws Exception {
+        final AppContext app = app(Collections.emptyMap())
+                .addSource(NeedDep.class, "need", NeedDep::new, true)
+                .addSource(SlowDep.class, "slow", () -> {
+                    sleep(300); // NeedDep 注入期间
+                    return new SlowDep();
+                }, true);
+        final List<NeedDep> got = new CopyOnWriteArrayList<>();
+        Thread t = new Thread(() -> got.add(app.bean(NeedDep.class, "need")));
+        t.start();
+        sleep(100);
+        // 其它线程不会拿到还没注入完成的对象
+        final NeedDep need = app.bean(NeedDep.class, "need");
+        Assertions.assertNotNull(need.dep);
+        t.join(5000);
+        Assertions.assertSame(need, got.get(0));
+    }
+
+
+    @Test
+    void lazySourceCycleTest() {
+        final AppContext app = app(Collections.emptyMap())
+                .addSource(CycA.class, "cycA", CycA::new, true)
+                .addSource(CycB.class, "cycB", CycB::new, true);
+        final CycA a = app.bean(CycA.class, null);
+        Assertions.assertNotNull(a.b);
+        Assertions.assertSame(a, a.b.a); // 循环引用: 当前线程用创建中的对象
+        Assertions.assertSame(a.b, app.bean(CycB.class, null));
+    }
+
+
+    public static class OrderA {
+        final List<String> order;
+        OrderA(List<String> order) { this.order = order; }
+
+        @EL(name = "sys.starting", order = 2f)
+        public void start() { order.add("a"); }
+    }
+    public static class OrderB {
+        final List<String> order;
+        OrderB(List<String> order) { this.order = order; }
+
+        @EL(name = "sys.starting")
+        public void start() { order.add("b"); }
+    }
+    public static class OrderC {
+        final List<String> order;
+        OrderC(List<String> order) { this.order = order; }
+
+        @EL(name = "sys.starting", order = 1f)
+        public void start() { order.add("c"); }
+    }
+    public static class AsyncD {
+        final List<String> order;
+        AsyncD(List<String> order) { this.order = order; }
+
+        @EL(name = "sys.starting", async = true)
+        public void start() {
+            sleep(200);
+            order.add("d");
+        }
+    }
+    public static class Profiled {
+        final List<String>   order;
+        final CountDownLatch latch  = new CountDownLatch(1);
+        final List<Object>   spans  = new CopyOnWriteArrayList<>();
+        Profiled(List<String> order) { this.order = order; }
+
+        @EL(name = "sys.profile")
+        public void profile(List<?> spans) { this.spans.addAll(spans); }
+
+        @EL(name = "sys.started")
+        public void started() {
+            order.add("started");
+            latch.countDown();
+        }
+    }
+
+
+    /**
+     * 启动并返回 sys.starting 监听的执行顺序
+     */
+    static List<String> startOrder(boolean profile, List<Object> spans) throws Exception {
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final Profiled profiled = new Profiled(order);
+        app(Collections.singletonMap("sys.start.profile", profile))
+                .addSource(new OrderA(order), "a")
+                .addSource(new AsyncD(order), "d")
+                .addSource(new OrderB(order), "b")
+                .addSource(new OrderC(order), "c")
+                .addSource(profiled, "profiled")
+                .start();
+        Assertions.assertTrue(profiled.latch.await(5, TimeUnit.SECONDS));
+        spans.addAll(profiled.spans);
+        return order;
+    }
+
+
+    @Test
+    void startProfileTest() throws Exception {
+        final List<Object> spans = new ArrayList<>();
+        final List<String> order = startOrder(false, spans);
+        Assertions.assertTrue(spans.isEmpty());
+        // 记录启动耗时不改变 sys.starting 监听的顺序和同步/异步: 异步监听执行完后才 sys.started
+        Assertions.assertEquals(order, startOrder(true, spans));
+        Assertions.assertEquals("started", order.get(order.size() - 1));
+        Assertions.assertEquals(Arrays.asList("b", "c", "a"), order.stream().filter(s -> !"d".equals(s) && !"started".equals(s)).collect(java.util.stream.Collectors.toList()));
+        // 每个监听一条记录
+        Assertions.assertTrue(spans.stream().filter(s -> s.toString().contains("sys.starting")).count() >= 4);
+    }
 }
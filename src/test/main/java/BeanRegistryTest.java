@@ -0,0 +1,56 @@
+import cn.xnatural.app.BeanRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class BeanRegistryTest {
+
+
+    @Test
+    void getTest() {
+        BeanRegistry beans = new BeanRegistry();
+        List<String> list = new ArrayList<>();
+        beans.register("list", list).register("str", "aaa");
+
+        Assertions.assertSame(list, beans.get(List.class, null));
+        Assertions.assertSame(list, beans.get(Collection.class, null));
+        Assertions.assertSame(list, beans.get(null, "list"));
+        Assertions.assertEquals("aaa", beans.get(CharSequence.class, null));
+        Assertions.assertEquals("aaa", beans.get(Serializable.class, "str"));
+        Assertions.assertNull(beans.get(Integer.class, "str"));
+        Assertions.assertEquals(2, beans.getAll(Serializable.class).size());
+    }
+
+
+    @Test
+    void sameNameTest() {
+        BeanRegistry beans = new BeanRegistry();
+        beans.register("db", "server").register("db", 1);
+
+        Assertions.assertEquals("server", beans.get(null, "db"));
+        Assertions.assertEquals(1, beans.get(Integer.class, "db"));
+        Assertions.assertTrue(beans.remove("db", 1));
+        Assertions.assertNull(beans.get(Integer.class, "db"));
+        Assertions.assertNull(beans.get(Number.class, null));
+    }
+
+
+    @Test
+    void exposedFirstTest() {
+        BeanRegistry beans = new BeanRegistry();
+        beans.register("db", "source").register("db", "exposed", true).register("db", "exposed2", true);
+
+        // 服务暴露的 bean 优先于服务对象源, 与注册顺序无关
+        Assertions.assertEquals("exposed", beans.get(null, "db"));
+        Assertions.assertEquals("exposed", beans.get(String.class, null));
+        Assertions.assertEquals(3, beans.getAll(String.class).size());
+        Assertions.assertTrue(beans.remove("db", "exposed"));
+        Assertions.assertEquals("exposed2", beans.get(String.class, "db"));
+        Assertions.assertTrue(beans.remove("db", "exposed2"));
+        Assertions.assertEquals("source", beans.get(String.class, "db"));
+    }
+}
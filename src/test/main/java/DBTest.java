@@ -1,11 +1,28 @@
 import cn.xnatural.app.util.DB;
+import cn.xnatural.app.util.DBPool;
+import cn.xnatural.app.util.RoutingDB;
+import cn.xnatural.app.util.SqlMonitor;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public class DBTest {
     static final Logger log = LoggerFactory.getLogger(DBTest.class);
@@ -95,4 +112,260 @@ public class DBTest {
             );
         }
     }
+
+
+    @Test
+    void streamTest() throws Exception {
+        try (DB repo = new DB("jdbc:h2:mem:stream;DB_CLOSE_DELAY=-1", 1, 2)) {
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            for (int i = 0; i < 6000; i++) repo.execute("insert into test(name) values(?)", "nn" + i);
+            try (Stream<Map<String, Object>> rows = repo.setFetchSize(100).stream("select * from test")) {
+                Assertions.assertEquals(6000, rows.count()); // 不受 maxRows 限制
+            }
+            // 未读完就关闭, 连接被释放
+            for (int i = 0; i < 5; i++) {
+                try (Stream<Map<String, Object>> rows = repo.stream("select * from test where id > ?", 10)) {
+                    Assertions.assertEquals("nn10", rows.findFirst().get().get("NAME"));
+                }
+            }
+        }
+    }
+
+
+    @Test
+    void batchTest() throws Exception {
+        try (DB repo = new DB("jdbc:h2:mem:batch;DB_CLOSE_DELAY=-1", 1, 2)) {
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            List<Object[]> params = new ArrayList<>();
+            for (int i = 0; i < 25; i++) params.add(new Object[]{"nn" + i});
+            int[] counts = repo.batch("insert into test(name) values(?)", params, 10, true);
+            Assertions.assertEquals(25, counts.length);
+            Assertions.assertEquals(25, repo.single("select count(1) from test", Integer.class));
+            List<Object> ids = repo.batchWithGeneratedKey("insert into test(name) values(?)", params.subList(0, 3), 2);
+            Assertions.assertEquals(3, ids.size());
+        }
+    }
+
+
+    @Test
+    void stmtCacheTest() throws Exception {
+        try (DB repo = new DB("jdbc:h2:mem:stmtCache;DB_CLOSE_DELAY=-1", 1, 1).setStmtCacheSize(10)) {
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20), age int)");
+            for (int i = 0; i < 20; i++) repo.execute("insert into test(name, age) values(?, ?)", "nn" + i, i % 2 == 0 ? null : i);
+            Assertions.assertEquals(10, repo.single("select count(1) from test where age is null", Integer.class));
+            Assertions.assertEquals(20, repo.rows("select * from test").size());
+            Assertions.assertEquals("nn3", repo.row("select * from test where age = ?", 3).get("NAME"));
+            Assertions.assertEquals("nn5", repo.row("select * from test where age = ?", 5).get("NAME"));
+        }
+    }
+
+
+    @Test
+    void compactRowsTest() throws Exception {
+        try (DB repo = new DB("jdbc:h2:mem:compact;DB_CLOSE_DELAY=-1", 1, 2)) {
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            for (int i = 0; i < 10; i++) repo.execute("insert into test(name) values(?)", "nn" + i);
+            DB.Rows rows = repo.compactRows("select * from test order by id");
+            Assertions.assertEquals(10, rows.size());
+            Assertions.assertEquals("nn1", rows.value(1, "NAME"));
+            Assertions.assertEquals(repo.rows("select * from test order by id"), rows);
+        }
+    }
+
+
+    public static class User {
+        private Integer id;
+        private String name;
+        private Date createTime;
+        public void setId(Integer id) { this.id = id; }
+        public void setName(String name) { this.name = name; }
+    }
+
+
+    @Test
+    void queryTest() throws Exception {
+        try (DB repo = new DB("jdbc:h2:mem:query;DB_CLOSE_DELAY=-1", 1, 2)) {
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20), create_time timestamp)");
+            for (int i = 0; i < 10; i++) repo.execute("insert into test(name, create_time) values(?, ?)", "nn" + i, new Date());
+            List<User> users = repo.query("select * from test where id > ? order by id", User.class, 5);
+            Assertions.assertEquals(5, users.size());
+            Assertions.assertEquals("nn5", users.get(0).name);
+            Assertions.assertNotNull(users.get(0).createTime);
+            Assertions.assertEquals(10, repo.query("select name from test", String.class).size());
+        }
+    }
+
+
+    public static class Amount {
+        private Integer    boxed;
+        private int        prim;
+        private long       primLong;
+        private Long       wrapLong;
+        private BigDecimal decValue;
+    }
+
+
+    @Test
+    void convertTest() throws Exception {
+        try (DB repo = new DB("jdbc:h2:mem:convert;DB_CLOSE_DELAY=-1", 1, 2)) {
+            repo.execute("create table test(id int primary key, amount decimal(10, 2))");
+            repo.execute("insert into test(id, amount) values(?, ?)", 1, new BigDecimal("5.00"));
+            // 带小数位的 DECIMAL 映射为整数属性: 按数值转换, 不经过字符串
+            Amount amount = repo.query("select amount as boxed, amount as prim, amount as prim_long, amount as wrap_long, amount as dec_value from test", Amount.class).get(0);
+            Assertions.assertEquals(Integer.valueOf(5), amount.boxed);
+            Assertions.assertEquals(5, amount.prim);
+            Assertions.assertEquals(5L, amount.primLong);
+            Assertions.assertEquals(Long.valueOf(5), amount.wrapLong);
+            Assertions.assertEquals(new BigDecimal("5.00"), amount.decValue);
+            Assertions.assertEquals(Arrays.asList(5), repo.query("select amount from test", Integer.class));
+            Assertions.assertEquals(Arrays.asList(5L), repo.query("select amount from test", long.class));
+        }
+    }
+
+
+    @Test
+    void asyncTest() throws Exception {
+        try (DB repo = new DB("jdbc:h2:mem:async;DB_CLOSE_DELAY=-1", 1, 2)) {
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) futures.add(repo.executeAsync("insert into test(name) values(?)", "nn" + i));
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+            Assertions.assertEquals(10, repo.rowsAsync("select * from test").get().size());
+            Assertions.assertTrue(Thread.currentThread() != repo.async(Thread::currentThread).get());
+        }
+    }
+
+
+    @Test
+    void routingTest() throws Exception {
+        try (DB replica = new DB("jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1", 1, 2);
+             RoutingDB repo = new RoutingDB("jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1", Arrays.asList("jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1"), 1, 2)) {
+            replica.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            repo.execute("insert into test(name) values(?)", "nn");
+            Assertions.assertEquals(0, repo.rows("select * from test").size()); // 读从库
+            Assertions.assertEquals(1, repo.trans(() -> repo.rows("select * from test")).size()); // 事务中读主库
+            try (Stream<Map<String, Object>> rows = repo.stream("select * from test")) {
+                Assertions.assertEquals(0, rows.count()); // 流式查询读从库
+            }
+            Assertions.assertEquals(1, (long) repo.trans(() -> {
+                try (Stream<Map<String, Object>> rows = repo.stream("select * from test")) { return rows.count(); }
+            }));
+        }
+    }
+
+
+    @Test
+    void queryCacheTest() throws Exception {
+        try (DB repo = new DB("jdbc:h2:mem:queryCache;DB_CLOSE_DELAY=-1", 1, 2).setQueryCache(100, Duration.ofMinutes(1))) {
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            repo.execute("insert into test(name) values(?)", "nn");
+            Assertions.assertEquals(1, repo.single("select count(1) from test", Integer.class));
+            try (DB other = new DB("jdbc:h2:mem:queryCache;DB_CLOSE_DELAY=-1", 1, 1)) {
+                other.execute("insert into test(name) values(?)", "other");
+            }
+            Assertions.assertEquals(1, repo.single("select count(1) from test", Integer.class)); // 缓存
+            repo.execute("insert into test(name) values(?)", "nn2");
+            Assertions.assertEquals(3, repo.single("select count(1) from test", Integer.class)); // 更新 test 表后缓存失效
+            // 逗号连接的多个表: 更新第二个表后缓存失效
+            repo.execute("create table tag(id int auto_increment primary key, test_id int)");
+            final String join = "select count(1) from test t, tag g where t.id = g.test_id";
+            Assertions.assertEquals(0, repo.single(join, Integer.class));
+            repo.execute("insert into tag(test_id) values(?)", 1);
+            Assertions.assertEquals(1, repo.single(join, Integer.class));
+        }
+    }
+
+
+    @Test
+    void monitorTest() throws Exception {
+        try (DB repo = new DB("jdbc:h2:mem:monitor;DB_CLOSE_DELAY=-1", 1, 2).setMonitor(Duration.ofSeconds(1))) {
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            for (int i = 0; i < 10; i++) repo.execute("insert into test(name) values('nn" + i + "')");
+            repo.rows("select * from test");
+            log.info(repo.getMonitor().report(5));
+            SqlMonitor.Stat insert = repo.getMonitor().top(5).stream().filter(s -> s.sql.startsWith("insert")).findFirst().get();
+            Assertions.assertEquals(10, insert.getCount()); // 常量不同的 sql 合并为同一个指纹
+            Assertions.assertEquals(10, insert.getRows());
+            Assertions.assertEquals(10, insert.acquire.count()); // 每次执行获取一次连接
+            Assertions.assertEquals(10, insert.exec.count());
+            // 执行失败(主键重复)计入失败次数
+            Assertions.assertThrows(RuntimeException.class, () -> repo.execute("insert into test(id, name) values(1, 'dup')"));
+            SqlMonitor.Stat dup = repo.getMonitor().top(10).stream().filter(s -> s.sql.startsWith("insert into test(id, name)")).findFirst().get();
+            Assertions.assertEquals(1, dup.getCount());
+            Assertions.assertEquals(1, dup.getErrors());
+            Assertions.assertEquals(0, insert.getErrors());
+            // 流式查询: 关闭时记录获取连接耗时和读取的行数
+            try (Stream<Map<String, Object>> rows = repo.stream("select name from test where id > ?", 5)) {
+                Assertions.assertEquals(5, rows.count());
+            }
+            SqlMonitor.Stat stream = repo.getMonitor().top(10).stream().filter(s -> s.sql.startsWith("select name from test")).findFirst().get();
+            Assertions.assertEquals(1, stream.getCount());
+            Assertions.assertEquals(5, stream.getRows());
+            Assertions.assertEquals(1, stream.acquire.count());
+            // JMX
+            ObjectName objectName = new ObjectName("cn.xnatural.app:type=DB,name=" + repo.name);
+            Assertions.assertTrue((Long) ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "AcquireCount") >= 12);
+            repo.close();
+            Assertions.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)); // close 注销 JMX
+        }
+        // 读写分离: 从库的查询也记录
+        try (DB replica = new DB("jdbc:h2:mem:monitorReplica;DB_CLOSE_DELAY=-1", 1, 2);
+             RoutingDB repo = new RoutingDB("jdbc:h2:mem:monitorPrimary;DB_CLOSE_DELAY=-1", Arrays.asList("jdbc:h2:mem:monitorReplica;DB_CLOSE_DELAY=-1"), 1, 2)) {
+            replica.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            replica.execute("insert into test(name) values(?)", "replica");
+            repo.setMonitor(Duration.ofSeconds(1));
+            Assertions.assertEquals("replica", repo.single("select name from test", String.class));
+            SqlMonitor.Stat select = repo.getMonitor().top(5).stream().filter(s -> s.sql.startsWith("select")).findFirst().get();
+            Assertions.assertEquals(1, select.getCount());
+            Assertions.assertEquals(1, select.getRows());
+            Assertions.assertEquals(1, select.acquire.count()); // 从库获取连接耗时
+        }
+    }
+
+
+    @Test
+    void poolTest() throws Exception {
+        Map<String, Object> attr = new HashMap<>();
+        attr.put("url", "jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1");
+        attr.put("minIdle", 1); attr.put("maxActive", 2); attr.put("maxWait", 500);
+        try (DBPool pool = new DBPool(attr); DB repo = new DB(pool)) {
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            for (int i = 0; i < 10; i++) repo.execute("insert into test(name) values(?)", "nn" + i);
+            Assertions.assertEquals(10, repo.rows("select * from test").size());
+            Assertions.assertTrue(pool.getTotal() <= 2);
+            Assertions.assertEquals(0, pool.getActive());
+            try (Connection c1 = pool.getConnection(); Connection c2 = pool.getConnection()) {
+                Assertions.assertThrows(SQLException.class, pool::getConnection); // 超过最大连接数, 等待超时
+            }
+            Assertions.assertEquals(2, pool.getIdle());
+        }
+    }
+
+
+    @Test
+    void poolBrokenTest() throws Exception {
+        Map<String, Object> attr = new HashMap<>();
+        attr.put("url", "jdbc:h2:mem:poolBroken;DB_CLOSE_DELAY=-1");
+        attr.put("minIdle", 0); attr.put("maxActive", 2); attr.put("validationInterval", 60_000); // 借出时不检查
+        try (DBPool pool = new DBPool(attr); DB repo = new DB(pool)) {
+            repo.execute("create table test(id int auto_increment primary key, name varchar(20))");
+            Assertions.assertEquals(1, pool.getTotal());
+            try (Connection c = pool.getConnection(); Statement st = c.createStatement()) {
+                Assertions.assertSame(c, st.getConnection()); // 不暴露物理连接
+                st.getConnection().close(); // 归还, 不是关闭物理连接
+            }
+            Assertions.assertEquals(1, pool.getTotal());
+            Assertions.assertEquals(1, pool.getIdle());
+            // 语句执行出错且连接已不可用: 归还时检查并关闭
+            try (Connection c = pool.getConnection(); Statement st = c.createStatement()) {
+                st.execute("shutdown");
+                Assertions.assertThrows(SQLException.class, () -> st.executeQuery("select 1"));
+            }
+            Assertions.assertEquals(0, pool.getTotal());
+            Assertions.assertEquals(0, pool.getIdle());
+            Assertions.assertEquals(1, repo.single("select 1", Integer.class)); // 新建连接
+            Assertions.assertEquals(1, pool.getTotal());
+        }
+    }
 }
@@ -1,9 +1,17 @@
+import cn.xnatural.app.AppContext;
 import cn.xnatural.app.Devourer;
+import cn.xnatural.enet.event.EL;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -134,4 +142,144 @@ public class DevourerTest {
         Thread.sleep(1000 * 20);
         exec.shutdown();
     }
+
+
+    @Test
+    void testSubmit() throws Exception {
+        Devourer devourer = new Devourer("submit");
+        CompletableFuture<Integer> f1 = devourer.submit(() -> 1 + 1);
+        CompletableFuture<Integer> f2 = devourer.submit(() -> { throw new IllegalStateException("xx"); });
+        Assertions.assertEquals(2, f1.get());
+        try {
+            f2.get();
+            Assertions.fail("must fail");
+        } catch (ExecutionException ex) {
+            Assertions.assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        devourer.shutdown();
+    }
+
+
+    @Test
+    void testSubmitRetry() throws Exception {
+        // 失败保留重试: 结果等到重试成功
+        Devourer devourer = new Devourer("submitRetry").failMaxKeep(5).errorHandle((ex, d) -> {});
+        AtomicInteger count = new AtomicInteger();
+        CompletableFuture<Integer> f = devourer.submit(() -> {
+            if (count.incrementAndGet() < 3) throw new java.io.IOException("retry");
+            return count.get();
+        });
+        Assertions.assertEquals(3, f.get(5, java.util.concurrent.TimeUnit.SECONDS));
+        devourer.shutdown();
+    }
+
+
+    @Test
+    void testSubmitUseLast() throws Exception {
+        // 被 useLast 清除的任务结果被取消
+        Devourer devourer = new Devourer("submitUseLast").useLast(true);
+        java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(1);
+        devourer.offer(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread.sleep(50);
+        CompletableFuture<Integer> f1 = devourer.submit(() -> 1);
+        CompletableFuture<Integer> f2 = devourer.submit(() -> 2);
+        latch.countDown();
+        Assertions.assertEquals(2, f2.get(5, java.util.concurrent.TimeUnit.SECONDS));
+        Assertions.assertTrue(f1.isCancelled());
+        devourer.shutdown();
+    }
+
+
+    @Test
+    void testClose() throws Exception {
+        Devourer devourer = new Devourer("close");
+        AtomicInteger count = new AtomicInteger();
+        devourer.offer(() -> sleep(100)).offer(count::incrementAndGet);
+        Assertions.assertFalse(devourer.isClosed());
+        devourer.close();
+        Assertions.assertTrue(devourer.isClosed());
+        devourer.offer(count::incrementAndGet); // 关闭后丢弃
+        try {
+            devourer.submit(() -> 1).get();
+            Assertions.fail("must reject");
+        } catch (ExecutionException ex) {
+            Assertions.assertTrue(ex.getCause() instanceof java.util.concurrent.RejectedExecutionException);
+        }
+        // 已入队的任务继续执行完
+        Assertions.assertEquals(0, devourer.drain(Duration.ofSeconds(5)));
+        Assertions.assertEquals(1, count.get());
+        Assertions.assertEquals(0, devourer.getParallel());
+        devourer.shutdown();
+    }
+
+
+    @Test
+    void testDrain() throws Exception {
+        Devourer devourer = new Devourer("drain");
+        for (int i = 0; i < 5; i++) devourer.offer(() -> sleep(200));
+        long start = System.currentTimeMillis();
+        // 超时: 返回剩余未执行的任务数
+        Assertions.assertTrue(devourer.drain(Duration.ofMillis(300)) >= 2);
+        Assertions.assertTrue(System.currentTimeMillis() - start < 1000);
+        // 任务执行完即返回, 不用等到超时
+        start = System.currentTimeMillis();
+        Assertions.assertEquals(0, devourer.drain(Duration.ofSeconds(30)));
+        Assertions.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assertions.assertEquals(0, devourer.getParallel());
+        // 暂停中的对列不等待
+        devourer.suspend(Duration.ofSeconds(30)).offer(() -> {});
+        start = System.currentTimeMillis();
+        Assertions.assertEquals(1, devourer.drain(Duration.ofSeconds(10)));
+        Assertions.assertTrue(System.currentTimeMillis() - start < 1000);
+        devourer.shutdown();
+    }
+
+
+    @Test
+    void testShutdownOrder() throws Exception {
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final App app = new App();
+        app.addSource(new Stopper(order), "stopper");
+        app.queue("q1", () -> { sleep(300); order.add("q1"); });
+        app.queue("q2", () -> { sleep(300); order.add("q2"); });
+        long start = System.currentTimeMillis();
+        app.shutdown();
+        // 先通知 sys.stopping, 再等待所有队列执行完(共用一个截止时间, 并行执行, 总时长约300ms)
+        Assertions.assertEquals("stopping", order.get(0));
+        Assertions.assertTrue(order.containsAll(Arrays.asList("q1", "q2")));
+        Assertions.assertTrue(System.currentTimeMillis() - start < 3000);
+        Assertions.assertTrue(app.queue("q1", null).isClosed());
+        Assertions.assertEquals(0, app.queue("q1", null).getWaitingCount() + app.queue("q2", null).getWaitingCount());
+    }
+
+
+    static class App extends AppContext {
+        @Override
+        protected void shutdown() { super.shutdown(); }
+    }
+
+
+    public static class Stopper {
+        final List<String> order;
+
+        Stopper(List<String> order) { this.order = order; }
+
+        @EL(name = "sys.stopping")
+        public void stop() { order.add("stopping"); }
+    }
+
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -0,0 +1,136 @@
+import cn.xnatural.app.AppContext;
+import cn.xnatural.enet.event.EL;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EnvTest {
+
+
+    /**
+     * 用 attrs 作为自定义属性的应用, 返回解析后的环境属性
+     */
+    static Map<String, Object> env(Map<String, Object> attrs) {
+        return new AppContext() {
+            @Override
+            protected void customEnv(Map<String, Object> already) { already.putAll(attrs); }
+        }.env();
+    }
+
+
+    @Test
+    void placeholderTest() {
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("ph.a", "${ph.b}-${ph.c}");
+        attrs.put("ph.b", "B${ph.c}");
+        attrs.put("ph.c", "C");
+        attrs.put("ph.n", "${ph.none}!");
+        attrs.put("ph.x", "${ph.y}");
+        attrs.put("ph.y", "${ph.x}y"); // 循环引用
+        attrs.put("ph.bad", "${ ph.c} ${");
+        attrs.put("ph.name", "${sys.name}"); // 引用配置文件中的属性
+        final Map<String, Object> env = env(attrs);
+        Assertions.assertEquals("BC-C", env.get("ph.a"));
+        Assertions.assertEquals("!", env.get("ph.n"));
+        Assertions.assertEquals("y", env.get("ph.y"));
+        Assertions.assertEquals("${ ph.c} ${", env.get("ph.bad"));
+        Assertions.assertEquals(env.get("sys.name"), env.get("ph.name"));
+    }
+
+
+    @Test
+    void chainTest() {
+        Map<String, Object> attrs = new HashMap<>();
+        for (int i = 0; i < 2000; i++) attrs.put("ch.k" + i, i == 0 ? "v" : "${ch.k" + (i - 1) + "}.");
+        Assertions.assertEquals(2000, env(attrs).get("ch.k1999").toString().length());
+    }
+
+
+    @Test
+    void watchTest() throws Exception {
+        final File file = new File(Files.createTempDirectory("envWatch").toFile(), "watch.properties");
+        write(file, "watch.a=1\nwatch.c=3\n");
+        final WatchApp app = new WatchApp(file);
+        final Listener listener = new Listener();
+        app.addSource(listener, "listener").start();
+        Assertions.assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("1", app.env().get("watch.a"));
+        final Thread watchThread = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> "env-watch".equals(t.getName())).findFirst().orElse(null);
+        Assertions.assertNotNull(watchThread);
+
+        // 短时间内多次保存(编辑器保存), 只触发一次 env.changed
+        write(file, "watch.a=2\n");
+        Thread.sleep(50);
+        write(file, "watch.a=2\nwatch.b=2\n");
+        Assertions.assertTrue(listener.changed.await(10, TimeUnit.SECONDS));
+        Thread.sleep(1000);
+        Assertions.assertEquals(1, listener.keys.size());
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("watch.a", "watch.b", "watch.c")), listener.keys.get(0));
+        Assertions.assertEquals("2", app.env().get("watch.a"));
+        Assertions.assertNull(app.env().get("watch.c"));
+
+        // 关闭后监控线程停止
+        app.stop();
+        watchThread.join(5000);
+        Assertions.assertFalse(watchThread.isAlive());
+    }
+
+
+    static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * 只监控一个配置文件的应用
+     */
+    static class WatchApp extends AppContext {
+        final File file;
+
+        WatchApp(File file) { this.file = file; }
+
+        @Override
+        protected List<File> envFiles() { return Collections.singletonList(file); }
+
+        @Override
+        protected void customEnv(Map<String, Object> already) {
+            already.put("sys.env.watch", true);
+            final Properties props = new Properties();
+            try (InputStream is = new FileInputStream(file)) {
+                props.load(is);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            props.forEach((k, v) -> already.put(k.toString(), v));
+        }
+
+        void stop() { shutdown(); }
+    }
+
+
+    public static class Listener {
+        final CountDownLatch    started = new CountDownLatch(1);
+        final CountDownLatch    changed = new CountDownLatch(1);
+        final List<Set<String>> keys    = new CopyOnWriteArrayList<>();
+
+        @EL(name = "sys.started")
+        public void started() { started.countDown(); }
+
+        @EL(name = "env.changed")
+        public void changed(Set<String> keys) {
+            this.keys.add(new HashSet<>(keys));
+            changed.countDown();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import cn.xnatural.app.AppContext;
+import cn.xnatural.app.Attr;
+import cn.xnatural.app.ServerTpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+public class ServerTplTest {
+
+
+    @Test
+    void parallelTest() {
+        final AppContext app = new AppContext();
+        ServerTpl server = new ServerTpl("server1");
+        app.addSource(server);
+        app.start();
+
+        Assertions.assertEquals(Arrays.asList(1, 2, 3), server.parallel(Duration.ofSeconds(3), () -> 1, () -> 2, () -> 3));
+        Assertions.assertEquals("fast", server.anyOf(Duration.ofSeconds(3), () -> {
+            try { Thread.sleep(2000); } catch (InterruptedException e) {}
+            return "slow";
+        }, () -> "fast").join());
+        final List<Supplier<Integer>> calls = Arrays.asList(() -> 1, () -> 2);
+        Assertions.assertEquals(Arrays.asList(1, 2), server.parallel(Duration.ofSeconds(3), calls));
+    }
+
+
+    @Test
+    void deadlineTest() throws Exception {
+        final AppContext app = new AppContext();
+        ServerTpl server = new ServerTpl("server1");
+        app.addSource(server);
+        app.start();
+
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        try {
+            server.allOf(Duration.ofMillis(500), () -> 1, () -> {
+                try { Thread.sleep(5000); } catch (InterruptedException e) { interrupted.set(true); }
+                return 2;
+            }).get();
+            Assertions.fail("must timeout");
+        } catch (ExecutionException ex) {
+            Assertions.assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        Thread.sleep(200);
+        Assertions.assertTrue(interrupted.get(), "slow call must be cancelled");
+    }
+
+
+    @Test
+    void attrTest() {
+        final AppContext app = new AppContext();
+        ServerTpl server = new ServerTpl("server1");
+        app.addSource(server);
+        app.env().put("server1.limit", "10");
+        Assertions.assertEquals(10, server.getAttr("limit", Integer.class, 1));
+        Assertions.assertEquals("10", server.getAttr("limit", String.class, null));
+        app.env().put("server1.limit", "20");
+        Assertions.assertEquals(20, server.getAttr("limit", Integer.class, 1));
+        server.setAttr("limit", 30);
+        Assertions.assertEquals(30, server.getAttr("limit", Integer.class, 1));
+        Assertions.assertEquals(1, server.getAttr("notExist", Integer.class, 1));
+    }
+
+
+    static class Conf {
+        int maxConn = 10;
+        @Attr(min = 1, max = 100) long timeout = 30;
+        @Attr(required = true) String host;
+    }
+
+
+    @Test
+    void bindConfigTest() {
+        final AppContext app = new AppContext();
+        ServerTpl server = new ServerTpl("server1");
+        app.addSource(server);
+        app.start();
+
+        Supplier<Conf> conf = server.bindConfig(Conf.class);
+        Assertions.assertThrows(IllegalArgumentException.class, conf::get);
+        server.setAttr("host", "localhost").setAttr("timeout", "50");
+        Assertions.assertEquals(10, conf.get().maxConn);
+        Assertions.assertEquals(50, conf.get().timeout);
+        Assertions.assertEquals("localhost", conf.get().host);
+
+        server.setAttr("timeout", "60");
+        app.ep().fire("env.changed", Collections.singleton("server1.timeout"));
+        Assertions.assertEquals(60, conf.get().timeout);
+
+        server.setAttr("timeout", "1000"); // 校验不通过, 保留原配置
+        app.ep().fire("env.changed", Collections.singleton("server1.timeout"));
+        Assertions.assertEquals(60, conf.get().timeout);
+    }
+}
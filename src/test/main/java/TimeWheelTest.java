@@ -0,0 +1,52 @@
+import cn.xnatural.app.TimeWheel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TimeWheelTest {
+    static final Logger log = LoggerFactory.getLogger(TimeWheelTest.class);
+
+
+    @Test
+    void testSchedule() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        TimeWheel wheel = new TimeWheel(exec, 10, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        // 超过一圈(80ms)的延时
+        wheel.schedule(Duration.ofMillis(300), latch::countDown);
+        Assertions.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        long spend = System.currentTimeMillis() - start;
+        log.info("spend: " + spend);
+        Assertions.assertTrue(spend >= 290);
+        wheel.stop();
+        exec.shutdown();
+    }
+
+
+    @Test
+    void testFixedRateAndCancel() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        TimeWheel wheel = new TimeWheel(exec, 10, 16);
+        AtomicInteger count = new AtomicInteger();
+        TimeWheel.Task task = wheel.scheduleAtFixedRate(Duration.ZERO, Duration.ofMillis(50), count::incrementAndGet);
+        Thread.sleep(520);
+        task.cancel();
+        int c = count.get();
+        log.info("count: " + c);
+        Assertions.assertTrue(c >= 3); // 只断言下限: 机器繁忙时 tick 线程可能被延迟
+        Thread.sleep(200);
+        Assertions.assertTrue(count.get() <= c + 1); // 取消前已交给线程池的一次可能还在执行
+        Assertions.assertEquals(0, wheel.getWaitingCount());
+        wheel.stop();
+        exec.shutdown();
+    }
+}